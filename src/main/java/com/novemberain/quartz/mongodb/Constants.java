@@ -5,12 +5,18 @@ public interface Constants {
   String JOB_DATA = "jobData";
   String JOB_DATA_PLAIN = "jobDataPlain";
   String TRIGGER_NEXT_FIRE_TIME = "nextFireTime";
+  String TRIGGER_PRIORITY = "priority";
+  String TRIGGER_MISFIRE_INSTRUCTION = "misfireInstruction";
   String TRIGGER_JOB_ID = "jobId";
+  String TRIGGER_JOB_NAME = "jobName";
+  String TRIGGER_JOB_GROUP = "jobGroup";
   String TRIGGER_STATE = "state";
+  String TRIGGER_LOCK = "lock";
   String LOCK_INSTANCE_ID = "instanceId";
   String LOCK_TIME = "time";
 
   String STATE_WAITING = "waiting";
+  String STATE_ACQUIRED = "acquired";
   String STATE_DELETED = "deleted";
   String STATE_COMPLETE = "complete";
   String STATE_PAUSED = "paused";
@@ -2,10 +2,36 @@ package com.novemberain.quartz.mongodb;
 
 import com.mongodb.MongoClient;
 import com.novemberain.quartz.mongodb.clojure.DynamicClassLoadHelper;
+import org.quartz.SchedulerConfigException;
 import org.quartz.spi.ClassLoadHelper;
+import org.quartz.spi.SchedulerSignaler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 public class DynamicMongoDBJobStore extends MongoDBJobStore {
 
+    private static final Set<DynamicMongoDBJobStore> initializedStores =
+            Collections.newSetFromMap(new WeakHashMap<DynamicMongoDBJobStore, Boolean>());
+
+    /**
+     * Forgets resolved job classes of all initialized stores. Call it
+     * after job records are redefined in REPL, stores are usually created
+     * by the scheduler factory and not reachable otherwise.
+     */
+    public static void clearJobClassCaches() {
+        List<DynamicMongoDBJobStore> stores;
+        synchronized (initializedStores) {
+            stores = new ArrayList<DynamicMongoDBJobStore>(initializedStores);
+        }
+        for (DynamicMongoDBJobStore store : stores) {
+            store.clearJobClassCache();
+        }
+    }
+
     public DynamicMongoDBJobStore() {
         super();
     }
@@ -18,6 +44,23 @@ public class DynamicMongoDBJobStore extends MongoDBJobStore {
         super(mongoUri, username, password);
     }
 
+    @Override
+    public void initialize(ClassLoadHelper loadHelper, SchedulerSignaler signaler)
+            throws SchedulerConfigException {
+        super.initialize(loadHelper, signaler);
+        synchronized (initializedStores) {
+            initializedStores.add(this);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (initializedStores) {
+            initializedStores.remove(this);
+        }
+        super.shutdown();
+    }
+
     @Override
     protected ClassLoadHelper getClassLoaderHelper(ClassLoadHelper original) {
         return new DynamicClassLoadHelper();
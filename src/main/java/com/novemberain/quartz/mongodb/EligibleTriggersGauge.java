@@ -0,0 +1,92 @@
+package com.novemberain.quartz.mongodb;
+
+import com.novemberain.quartz.mongodb.dao.TriggerDao;
+import com.novemberain.quartz.mongodb.util.Clock;
+import com.novemberain.quartz.mongodb.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Periodically samples the number of waiting triggers that are due to fire.
+ *
+ * <p>Counting is done on its own thread, so the backlog stays observable
+ * without adding a second query to each acquisition.</p>
+ */
+public class EligibleTriggersGauge implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(EligibleTriggersGauge.class);
+
+    /**
+     * Value reported until the first sample has been taken.
+     */
+    public static final long NOT_SAMPLED = -1;
+
+    private final TriggerDao triggerDao;
+    private final Clock clock;
+    private final long sampleIntervalMillis;
+
+    private volatile long backlog = NOT_SAMPLED;
+    private volatile long lastSampleTime = NOT_SAMPLED;
+
+    private ScheduledExecutorService executor;
+
+    public EligibleTriggersGauge(TriggerDao triggerDao, Clock clock, long sampleIntervalMillis) {
+        this.triggerDao = triggerDao;
+        this.clock = clock;
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    /**
+     * Start sampling, unless disabled by non-positive interval.
+     */
+    public synchronized void start() {
+        if (sampleIntervalMillis <= 0 || executor != null) {
+            return;
+        }
+        log.info("Sampling eligible triggers every {} ms", sampleIntervalMillis);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("quartz-mongodb-eligible-triggers-gauge"));
+        executor.scheduleWithFixedDelay(this, 0, sampleIntervalMillis, MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            long count = triggerDao.countEligibleToRun(clock.now());
+            backlog = count;
+            lastSampleTime = clock.millis();
+            log.debug("Found {} triggers which are eligible to be run.", count);
+        } catch (RuntimeException e) {
+            // Thrown out of run it would cancel further samples
+            log.warn("Could not count eligible triggers: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return number of triggers due to fire at the time of last sample
+     *         or {@value #NOT_SAMPLED} when not sampled yet
+     */
+    public long getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @return time in millis of the last successful sample
+     *         or {@value #NOT_SAMPLED} when not sampled yet
+     */
+    public long getLastSampleTime() {
+        return lastSampleTime;
+    }
+}
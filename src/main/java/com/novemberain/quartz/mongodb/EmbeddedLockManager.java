@@ -0,0 +1,80 @@
+package com.novemberain.quartz.mongodb;
+
+import com.novemberain.quartz.mongodb.dao.EmbeddedTriggerLocksDao;
+import com.novemberain.quartz.mongodb.dao.LocksDao;
+import com.novemberain.quartz.mongodb.util.ExpiryCalculator;
+import org.bson.Document;
+import org.quartz.JobPersistenceException;
+import org.quartz.TriggerKey;
+import org.quartz.spi.OperableTrigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Locks triggers in their own documents, so acquiring a trigger takes
+ * a single atomic update of the trigger. Jobs are still locked in
+ * the locks collection.
+ */
+public class EmbeddedLockManager extends LockManager {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedLockManager.class);
+
+    private final EmbeddedTriggerLocksDao triggerLocksDao;
+
+    public EmbeddedLockManager(LocksDao locksDao, EmbeddedTriggerLocksDao triggerLocksDao,
+                               ExpiryCalculator expiryCalculator) {
+        super(locksDao, expiryCalculator);
+        this.triggerLocksDao = triggerLocksDao;
+    }
+
+    @Override
+    public void unlockAcquiredTrigger(OperableTrigger trigger) {
+        triggerLocksDao.unlockTrigger(trigger);
+    }
+
+    @Override
+    public boolean tryLock(TriggerKey key) {
+        if (triggerLocksDao.lockTrigger(key)) {
+            return true;
+        }
+        log.info("Failed to lock trigger {}, it's not waiting", key);
+        return false;
+    }
+
+    @Override
+    public Set<TriggerKey> tryLock(List<TriggerKey> keys) {
+        return triggerLocksDao.lockTriggers(keys);
+    }
+
+    @Override
+    public List<Document> findTriggersWithExpiredLocks(Date noLaterThanDate, int limit) {
+        return triggerLocksDao
+                .findLockedBefore(noLaterThanDate, expiryCalculator.getTriggerLockTimeoutBoundary(), limit)
+                .into(new ArrayList<Document>());
+    }
+
+    @Override
+    public List<TriggerKey> findOwnTriggersLocks() {
+        return triggerLocksDao.findOwnTriggersLocks();
+    }
+
+    @Override
+    public boolean updateOwnLock(TriggerKey key) throws JobPersistenceException {
+        return triggerLocksDao.updateOwnLock(key);
+    }
+
+    @Override
+    protected Document findTriggerLock(TriggerKey key) {
+        return triggerLocksDao.findTriggerLock(key);
+    }
+
+    @Override
+    protected boolean relock(TriggerKey key, Date lockTime) {
+        return triggerLocksDao.relock(key, lockTime);
+    }
+}
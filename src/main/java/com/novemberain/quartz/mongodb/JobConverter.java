@@ -1,21 +1,34 @@
 package com.novemberain.quartz.mongodb;
 
+import com.novemberain.quartz.mongodb.util.Keys;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.quartz.*;
+import org.quartz.impl.JobDetailImpl;
 import org.quartz.spi.ClassLoadHelper;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP_REVERSED;
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_NAME;
 
 public class JobConverter {
 
     public static final String JOB_DURABILITY = "durability";
-    private static final String JOB_CLASS = "jobClass";
-    private static final String JOB_DESCRIPTION = "jobDescription";
+    static final String JOB_CLASS = "jobClass";
+    static final String JOB_DESCRIPTION = "jobDescription";
     public static final String JOB_REQUESTS_RECOVERY = "requestsRecovery";
+    /**
+     * New revision is given to each stored job, so cached jobs can be validated.
+     */
+    public static final String JOB_REVISION = "revision";
 
     private ClassLoadHelper loadHelper;
     private final JobDataConverter jobDataConverter;
+    private final ConcurrentMap<String, Class<? extends Job>> jobClasses =
+            new ConcurrentHashMap<String, Class<? extends Job>>();
 
     public JobConverter(ClassLoadHelper loadHelper, JobDataConverter jobDataConverter) {
         this.loadHelper = loadHelper;
@@ -31,10 +44,12 @@ public class JobConverter {
         Document job = new Document();
         job.put(KEY_NAME, key.getName());
         job.put(KEY_GROUP, key.getGroup());
+        job.put(KEY_GROUP_REVERSED, Keys.reverse(key.getGroup()));
         job.put(JOB_DESCRIPTION, newJob.getDescription());
         job.put(JOB_CLASS, newJob.getJobClass().getName());
         job.put(JOB_DURABILITY, newJob.isDurable());
         job.put(JOB_REQUESTS_RECOVERY, newJob.requestsRecovery());
+        job.put(JOB_REVISION, new ObjectId());
         jobDataConverter.toDocument(newJob.getJobDataMap(), job);
         return job;
     }
@@ -43,44 +58,80 @@ public class JobConverter {
      * Converts from document to job detail.
      */
     public JobDetail toJobDetail(Document doc) throws JobPersistenceException {
+        return toJobDetail(doc.getString(KEY_NAME), doc.getString(KEY_GROUP),
+                doc.getString(JOB_DESCRIPTION), doc.getString(JOB_CLASS),
+                doc.get(JOB_DURABILITY), doc.get(JOB_REQUESTS_RECOVERY), doc);
+    }
+
+    /**
+     * Creates job detail from its fields, shared with {@link JobDetailDecoder}.
+     *
+     * @param data    document with job data, other fields are left out
+     */
+    JobDetail toJobDetail(String name, String group, String description, String className,
+                          Object durability, Object requestsRecovery, Document data)
+            throws JobPersistenceException {
         try {
             // Make it possible for subclasses to use custom class loaders.
             // When Quartz jobs are implemented as Clojure records, the only way to use
             // them without switching to gen-class is by using a
             // clojure.lang.DynamicClassLoader instance.
-            @SuppressWarnings("unchecked")
-            Class<Job> jobClass = (Class<Job>) loadHelper.getClassLoader()
-                    .loadClass(doc.getString(JOB_CLASS));
-
-            JobBuilder builder = createJobBuilder(doc, jobClass);
-            withDurability(doc, builder);
-            withRequestsRecovery(doc, builder);
-            JobDataMap jobData = createJobDataMap(doc);
-            return builder.usingJobData(jobData).build();
-        } catch (ClassNotFoundException e) {
-            throw new JobPersistenceException("Could not load job class " + doc.get(JOB_CLASS), e);
+            Class<? extends Job> jobClass = loadJobClass(className);
+
+            JobBuilder builder = JobBuilder.newJob(jobClass)
+                    .withIdentity(name, group)
+                    .withDescription(description);
+            withDurability(durability, builder);
+            if (requestsRecovery != null && (Boolean) requestsRecovery) {
+                builder.requestRecovery(true);
+            }
+            JobDetailImpl job = (JobDetailImpl) builder.build();
+            // Set as it is, builder would copy and so decode lazy job data
+            job.setJobDataMap(createJobDataMap(data));
+            return job;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new JobPersistenceException("Could not load job class " + className, e);
+        }
+    }
+
+    /**
+     * Forgets resolved job classes, so they're loaded again.
+     * Needed when job classes are redefined, e.g. in Clojure REPL.
+     */
+    public void clearClassCache() {
+        jobClasses.clear();
+    }
+
+    private Class<? extends Job> loadJobClass(String className) throws ClassNotFoundException {
+        Class<? extends Job> jobClass = jobClasses.get(className);
+        if (jobClass == null) {
+            jobClass = loadHelper.getClassLoader().loadClass(className).asSubclass(Job.class);
+            jobClasses.put(className, jobClass);
         }
+        return jobClass;
     }
 
     /**
      * Converts document into job data map.
-     * Will first try {@link JobDataConverter} to deserialize
+     * Will first try {@link JobDataConverter} to lazily deserialize
      * from '{@value Constants#JOB_DATA}' ({@code base64})
      * or '{@value Constants#JOB_DATA_PLAIN}' fields.
      * If didn't succeed, will try to build job data
      * from root fields (legacy, subject to remove).
      */
-    private JobDataMap createJobDataMap(Document doc) throws JobPersistenceException {
-        JobDataMap jobData = new JobDataMap();
-
-        if (!jobDataConverter.toJobData(doc, jobData)) {
+    private JobDataMap createJobDataMap(Document doc) {
+        JobDataMap jobData = jobDataConverter.toLazyJobData(doc);
+        if (jobData == null) {
+            jobData = new JobDataMap();
             for (String key : doc.keySet()) {
                 if (!key.equals(KEY_NAME)
                         && !key.equals(KEY_GROUP)
+                        && !key.equals(KEY_GROUP_REVERSED)
                         && !key.equals(JOB_CLASS)
                         && !key.equals(JOB_DESCRIPTION)
                         && !key.equals(JOB_DURABILITY)
                         && !key.equals(JOB_REQUESTS_RECOVERY)
+                        && !key.equals(JOB_REVISION)
                         && !key.equals("_id")) {
                     jobData.put(key, doc.get(key));
                 }
@@ -91,8 +142,7 @@ public class JobConverter {
         return jobData;
     }
 
-    private void withDurability(Document doc, JobBuilder builder) throws JobPersistenceException {
-        Object jobDurability = doc.get(JOB_DURABILITY);
+    private void withDurability(Object jobDurability, JobBuilder builder) throws JobPersistenceException {
         if (jobDurability != null) {
             if (jobDurability instanceof Boolean) {
                 builder.storeDurably((Boolean) jobDurability);
@@ -104,16 +154,4 @@ public class JobConverter {
             }
         }
     }
-
-    private void withRequestsRecovery(Document doc, JobBuilder builder) {
-        if (doc.getBoolean(JOB_REQUESTS_RECOVERY, false)) {
-            builder.requestRecovery(true);
-        }
-    }
-
-    private JobBuilder createJobBuilder(Document doc, Class<Job> jobClass) {
-        return JobBuilder.newJob(jobClass)
-                .withIdentity(doc.getString(KEY_NAME), doc.getString(KEY_GROUP))
-                .withDescription(doc.getString(JOB_DESCRIPTION));
-    }
 }
@@ -1,11 +1,20 @@
 package com.novemberain.quartz.mongodb;
 
+import com.novemberain.quartz.mongodb.jobdata.Compression;
+import com.novemberain.quartz.mongodb.jobdata.JavaSerializationJobDataCodec;
+import com.novemberain.quartz.mongodb.jobdata.JobDataCodec;
+import com.novemberain.quartz.mongodb.jobdata.JobDataCodecs;
+import com.novemberain.quartz.mongodb.jobdata.LazyJobDataMap;
 import com.novemberain.quartz.mongodb.util.SerialUtils;
+import org.apache.commons.codec.binary.Base64;
+import org.bson.BsonBinarySubType;
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.quartz.JobDataMap;
 import org.quartz.JobPersistenceException;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -13,84 +22,193 @@ import java.util.Map;
  */
 public class JobDataConverter {
 
-	private final boolean base64Preferred;
+	/**
+	 * Codec to encode job data with, null when stored as plain object.
+	 */
+	private final JobDataCodec codec;
+	private final Map<Byte, JobDataCodec> codecsBySubtype = new HashMap<Byte, JobDataCodec>();
+	/**
+	 * Encoded job data of at least this many bytes is compressed, 0 disables compression.
+	 */
+	private final int compressionThreshold;
 
 	/**
 	 * Constructs an instance of converter.
-	 * @param base64Preferred if preferred way to store job details is {@code base64}.
+	 * @param base64Preferred if preferred way to store job details is serialized
+	 *                        (by Java serialization), rather than plain object.
 	 */
 	public JobDataConverter(final boolean base64Preferred) {
-		this.base64Preferred = base64Preferred;
+		this(base64Preferred ? new JavaSerializationJobDataCodec() : null);
+	}
+
+	/**
+	 * Constructs an instance of converter.
+	 * @param codec to encode job data with, or null to store it as plain object.
+	 */
+	public JobDataConverter(final JobDataCodec codec) {
+		this(codec, 0);
+	}
+
+	/**
+	 * Constructs an instance of converter.
+	 * @param codec to encode job data with, or null to store it as plain object.
+	 * @param compressionThreshold size in bytes of encoded job data from which
+	 *                             it's compressed, 0 disables compression.
+	 */
+	public JobDataConverter(final JobDataCodec codec, final int compressionThreshold) {
+		this.codec = codec;
+		this.compressionThreshold = compressionThreshold;
+		for (JobDataCodec builtIn : JobDataCodecs.builtIn()) {
+			codecsBySubtype.put(builtIn.getBinarySubtype(), builtIn);
+		}
+		if (codec != null) {
+			codecsBySubtype.put(codec.getBinarySubtype(), codec);
+		}
 	}
 
 	/**
 	 * Converts from job data map to document.
 	 * Depending on config, job data map can be stored
-	 * as a {@code base64} encoded or plain object.
+	 * as a binary encoded by the codec or plain object.
 	 * @param from {@link JobDataMap} to convert from.
 	 * @param to mongo {@link Document} to populate. 
 	 * @throws JobPersistenceException if could not encode.
 	 */
 	public void toDocument(JobDataMap from, Document to) throws JobPersistenceException {
+		if (from instanceof LazyJobDataMap) {
+			// Not decoded yet, so it's unchanged
+			Document stored = ((LazyJobDataMap) from).getStoredJobData();
+			if (stored != null) {
+				to.putAll(stored);
+				return;
+			}
+		}
 		if (from.isEmpty()) {
 			return;
 		}
-		if (base64Preferred) {
-			String jobDataString;
+		if (codec != null) {
+			byte[] payload;
 			try {
-				jobDataString = SerialUtils.serialize(from);
+				payload = codec.encode(from.getWrappedMap());
 			} catch (IOException e) {
 				throw new JobPersistenceException("Could not serialise job data.", e);
 			}
-			to.put(Constants.JOB_DATA, jobDataString);
+			to.put(Constants.JOB_DATA, toBinary(payload));
 		} else {
 			to.put(Constants.JOB_DATA_PLAIN, from.getWrappedMap());
 		}
 	}
 
+	/**
+	 * Creates job data map which is decoded from the document on first
+	 * access, see {@link LazyJobDataMap}. Only job data fields are kept.
+	 * @param from mongo {@link Document} to read from.
+	 * @return lazy job data map or null when the document has no
+	 * job data field {@link #toJobData(Document, JobDataMap)} would read.
+	 */
+	public JobDataMap toLazyJobData(Document from) {
+		Document stored = new Document();
+		if (from.containsKey(Constants.JOB_DATA)) {
+			stored.put(Constants.JOB_DATA, from.get(Constants.JOB_DATA));
+		}
+		if (codec == null && from.containsKey(Constants.JOB_DATA_PLAIN)) {
+			stored.put(Constants.JOB_DATA_PLAIN, from.get(Constants.JOB_DATA_PLAIN));
+		}
+		return stored.isEmpty() ? null : new LazyJobDataMap(this, stored);
+	}
+
 	/**
 	 * Converts from document to job data map.
-	 * If {@code base64} is preferred, tries
-	 * to decode from '{@value Constants#JOB_DATA}' field.
+	 * If a codec is configured, tries to decode
+	 * from '{@value Constants#JOB_DATA}' field.
 	 * Otherwise, first reads a plain object from 
 	 * '{@value Constants#JOB_DATA_PLAIN}' field, or,
-	 * if not present, falls back to {@code base64} field.
+	 * if not present, falls back to encoded field.
 	 * @param from mongo {@link Document} to read from.
 	 * @param to {@link JobDataMap} to populate.
 	 * @return if {@link JobDataMap} has been populated.
 	 * @throws JobPersistenceException if could not decode.
 	 */
 	public boolean toJobData(Document from, JobDataMap to) throws JobPersistenceException {
-		if (base64Preferred) {
-			return toJobDataFromBase64(from, to);
+		if (codec != null) {
+			return toJobDataFromEncoded(from, to);
 		} else {
 			if (toJobDataFromField(from, to)) {
 				return true;
 			}
-			return toJobDataFromBase64(from, to);
+			return toJobDataFromEncoded(from, to);
 		}
 	}
 
 	/**
 	 * Converts from document to job data map
-	 * reading {@code base64} encoded field
-	 * '{@value Constants#JOB_DATA}'.
+	 * reading encoded field '{@value Constants#JOB_DATA}'.
+	 * It's a binary tagged with subtype of its codec,
+	 * or {@code base64} string written by older versions.
 	 */
-	private boolean toJobDataFromBase64(Document from, JobDataMap to) throws JobPersistenceException {
-		String jobDataBase64String = from.getString(Constants.JOB_DATA);
-		if (jobDataBase64String == null) {
+	private boolean toJobDataFromEncoded(Document from, JobDataMap to) throws JobPersistenceException {
+		Object encoded = from.get(Constants.JOB_DATA);
+		if (encoded == null) {
 			return false;
 		}
 		Map<String, ?> jobDataMap;
 		try {
-			jobDataMap = SerialUtils.deserialize(null, jobDataBase64String);
-		} catch (IOException e) {
+			if (encoded instanceof Binary) {
+				jobDataMap = decode((Binary) encoded);
+			} else {
+				jobDataMap = SerialUtils.deserializeJobData(Base64.decodeBase64((String) encoded));
+			}
+		} catch (IOException | ClassNotFoundException e) {
 			throw new JobPersistenceException("Could not deserialize job data.", e);
 		}
 		to.putAll(jobDataMap);
 		return true;
 	}
 
+	private Binary toBinary(byte[] payload) {
+		if (compressionThreshold > 0 && payload.length >= compressionThreshold) {
+			return new Binary(Compression.BINARY_SUBTYPE, Compression.compress(codec.getBinarySubtype(), payload));
+		}
+		return new Binary(codec.getBinarySubtype(), payload);
+	}
+
+	/**
+	 * Decodes binary with codec of its subtype. Compression is detected
+	 * by the subtype, or by the header of payload only when subtype
+	 * has not been kept, see {@link Compression}.
+	 */
+	private Map<String, ?> decode(Binary binary)
+			throws IOException, ClassNotFoundException, JobPersistenceException {
+		byte[] payload = binary.getData();
+		if (binary.getType() == Compression.BINARY_SUBTYPE) {
+			if (!Compression.isCompressed(payload)) {
+				throw new IOException("Compressed job data has no header");
+			}
+			return decompress(payload);
+		}
+		if (binary.getType() == BsonBinarySubType.BINARY.getValue() && Compression.isCompressed(payload)) {
+			return decompress(payload);
+		}
+		return findCodec(binary.getType()).decode(payload);
+	}
+
+	private Map<String, ?> decompress(byte[] compressed)
+			throws IOException, ClassNotFoundException, JobPersistenceException {
+		return findCodec(Compression.getCodecSubtype(compressed)).decode(Compression.decompress(compressed));
+	}
+
+	private JobDataCodec findCodec(byte subtype) throws JobPersistenceException {
+		if (subtype == BsonBinarySubType.BINARY.getValue()) {
+			// Subtype not kept, e.g. by a tool copying documents, assume the configured codec.
+			return codec != null ? codec : codecsBySubtype.get(JavaSerializationJobDataCodec.BINARY_SUBTYPE);
+		}
+		JobDataCodec found = codecsBySubtype.get(subtype);
+		if (found == null) {
+			throw new JobPersistenceException("No job data codec for binary subtype " + subtype);
+		}
+		return found;
+	}
+
 	/**
 	 * Converts from document to job data map
 	 * reading a plain object from field
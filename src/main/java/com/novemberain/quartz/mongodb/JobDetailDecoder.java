@@ -0,0 +1,109 @@
+package com.novemberain.quartz.mongodb;
+
+import org.bson.BSONException;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.quartz.JobDetail;
+import org.quartz.JobPersistenceException;
+
+import static com.novemberain.quartz.mongodb.JobConverter.*;
+import static com.novemberain.quartz.mongodb.util.BsonReaders.*;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP_REVERSED;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_NAME;
+
+/**
+ * Decodes jobs straight from BSON, without building a document of
+ * the whole job. Common job fields are read into the job, id and
+ * revision are skipped, only job data is collected into a small
+ * document for {@link JobDataConverter}, which decodes it lazily.
+ *
+ * <p>Decoding errors are thrown as {@link BSONException}
+ * caused by {@link JobPersistenceException}.</p>
+ *
+ * <p>Like {@link com.novemberain.quartz.mongodb.trigger.TriggerDecoder}
+ * it's a decoder only: jobs are read as {@link RawBsonDocument}s and
+ * stored as documents by {@link JobConverter#toDocument}.</p>
+ */
+public class JobDetailDecoder implements Decoder<JobDetail> {
+
+    private final JobConverter jobConverter;
+    private final CodecRegistry registry;
+
+    public JobDetailDecoder(JobConverter jobConverter, CodecRegistry registry) {
+        this.jobConverter = jobConverter;
+        this.registry = registry;
+    }
+
+    /**
+     * @param job    job document as read from database
+     * @return decoded job
+     */
+    public JobDetail decode(RawBsonDocument job) {
+        BsonBinaryReader reader = new BsonBinaryReader(job.getByteBuffer().asNIO());
+        try {
+            return decode(reader, DecoderContext.builder().build());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public JobDetail decode(BsonReader reader, DecoderContext decoderContext) {
+        String name = null;
+        String group = null;
+        String description = null;
+        String jobClass = null;
+        Object durability = null;
+        Object requestsRecovery = null;
+        Document data = new Document();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String field = reader.readName();
+            switch (field) {
+                case KEY_NAME:
+                    name = readString(reader);
+                    break;
+                case KEY_GROUP:
+                    group = readString(reader);
+                    break;
+                case JOB_DESCRIPTION:
+                    description = readString(reader);
+                    break;
+                case JOB_CLASS:
+                    jobClass = readString(reader);
+                    break;
+                case JOB_DURABILITY:
+                    durability = readValue(reader, decoderContext, registry);
+                    break;
+                case JOB_REQUESTS_RECOVERY:
+                    requestsRecovery = readValue(reader, decoderContext, registry);
+                    break;
+                case "_id":
+                case JOB_REVISION:
+                case KEY_GROUP_REVERSED:
+                    // Not needed to restore the job
+                    reader.skipValue();
+                    break;
+                default:
+                    // Job data, also legacy one stored in root fields
+                    data.put(field, readValue(reader, decoderContext, registry));
+            }
+        }
+        reader.readEndDocument();
+
+        try {
+            return jobConverter.toJobDetail(name, group, description, jobClass,
+                    durability, requestsRecovery, data);
+        } catch (JobPersistenceException e) {
+            throw new BSONException("Could not decode job " + group + "." + name, e);
+        }
+    }
+}
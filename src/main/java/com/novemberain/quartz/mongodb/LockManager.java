@@ -5,17 +5,23 @@ import com.novemberain.quartz.mongodb.dao.LocksDao;
 import com.novemberain.quartz.mongodb.util.ExpiryCalculator;
 import org.bson.Document;
 import org.quartz.JobDetail;
+import org.quartz.JobPersistenceException;
 import org.quartz.TriggerKey;
 import org.quartz.spi.OperableTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
 public class LockManager {
 
     private static final Logger log = LoggerFactory.getLogger(LockManager.class);
 
-    private LocksDao locksDao;
-    private ExpiryCalculator expiryCalculator;
+    private final LocksDao locksDao;
+    protected final ExpiryCalculator expiryCalculator;
 
     public LockManager(LocksDao locksDao, ExpiryCalculator expiryCalculator) {
         this.locksDao = locksDao;
@@ -33,6 +39,17 @@ public class LockManager {
         }
     }
 
+    /**
+     * Unlock job locked by {@link #lockJob(JobDetail)}.
+     *
+     * @param job    job to unlock
+     */
+    public void unlockJob(JobDetail job) {
+        if (job.isConcurrentExectionDisallowed()) {
+            locksDao.unlockJob(job);
+        }
+    }
+
     public void unlockAcquiredTrigger(OperableTrigger trigger) {
         locksDao.unlockTrigger(trigger);
     }
@@ -67,6 +84,16 @@ public class LockManager {
         return false;
     }
 
+    /**
+     * Try to lock given triggers at once.
+     *
+     * @param keys    triggers to lock
+     * @return keys of triggers that have been locked
+     */
+    public Set<TriggerKey> tryLock(List<TriggerKey> keys) {
+        return locksDao.lockTriggers(keys);
+    }
+
     /**
      * Relock trigger if its lock has expired.
      *
@@ -74,7 +101,7 @@ public class LockManager {
      * @return true when successfully relocked
      */
     public boolean relockExpired(TriggerKey key) {
-        Document existingLock = locksDao.findTriggerLock(key);
+        Document existingLock = findTriggerLock(key);
         if (existingLock != null) {
             if (expiryCalculator.isTriggerLockExpired(existingLock)) {
                 // When a scheduler is defunct then its triggers become expired
@@ -84,7 +111,7 @@ public class LockManager {
                 // Relock may not be successful when some other scheduler has done
                 // it first.
                 log.info("Trigger {} is expired - re-locking", key);
-                return locksDao.relock(key, existingLock.getDate(Constants.LOCK_TIME));
+                return relock(key, existingLock.getDate(Constants.LOCK_TIME));
             } else {
                 log.info("Trigger {} hasn't expired yet. Lock time: {}",
                         key, existingLock.getDate(Constants.LOCK_TIME));
@@ -94,4 +121,35 @@ public class LockManager {
         }
         return false;
     }
+
+    /**
+     * Find locked triggers, due to fire no later than given date, whose
+     * locks may have expired and are not found among triggers eligible to run.
+     *
+     * <p>Triggers locked in the locks collection stay eligible to run,
+     * so their expired locks are found during acquisition.</p>
+     *
+     * @param noLaterThanDate    the latest next fire time to consider
+     * @param limit              maximal number of triggers to return
+     * @return triggers to check with {@link #relockExpired(TriggerKey)}
+     */
+    public List<Document> findTriggersWithExpiredLocks(Date noLaterThanDate, int limit) {
+        return Collections.emptyList();
+    }
+
+    public List<TriggerKey> findOwnTriggersLocks() {
+        return locksDao.findOwnTriggersLocks();
+    }
+
+    public boolean updateOwnLock(TriggerKey key) throws JobPersistenceException {
+        return locksDao.updateOwnLock(key);
+    }
+
+    protected Document findTriggerLock(TriggerKey key) {
+        return locksDao.findTriggerLock(key);
+    }
+
+    protected boolean relock(TriggerKey key, Date lockTime) {
+        return locksDao.relock(key, lockTime);
+    }
 }
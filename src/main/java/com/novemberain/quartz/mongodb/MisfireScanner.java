@@ -0,0 +1,196 @@
+package com.novemberain.quartz.mongodb;
+
+import com.novemberain.quartz.mongodb.cluster.TriggerRecoverer;
+import com.novemberain.quartz.mongodb.dao.TriggerDao;
+import com.novemberain.quartz.mongodb.trigger.MisfireHandler;
+import com.novemberain.quartz.mongodb.trigger.TriggerConverter;
+import com.novemberain.quartz.mongodb.util.DaemonThreadFactory;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.quartz.JobPersistenceException;
+import org.quartz.TriggerKey;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Periodically applies misfire instructions to misfired triggers,
+ * like misfire handler thread of the JDBC store.
+ *
+ * <p>While it runs, acquisition leaves misfired triggers to it,
+ * so they don't delay acquisition of triggers that are due.</p>
+ */
+public class MisfireScanner implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(MisfireScanner.class);
+
+    private final TriggerDao triggerDao;
+    private final TriggerConverter triggerConverter;
+    private final TriggerAndJobPersister persister;
+    private final LockManager lockManager;
+    private final MisfireHandler misfireHandler;
+    private final TriggerRecoverer recoverer;
+    private final SchedulerSignaler signaler;
+    private final long scanIntervalMillis;
+    private final int maxMisfiresToHandleAtATime;
+
+    private ScheduledExecutorService executor;
+    private volatile boolean running;
+
+    public MisfireScanner(TriggerDao triggerDao, TriggerConverter triggerConverter,
+                          TriggerAndJobPersister persister, LockManager lockManager,
+                          MisfireHandler misfireHandler, TriggerRecoverer recoverer,
+                          SchedulerSignaler signaler,
+                          long scanIntervalMillis, int maxMisfiresToHandleAtATime) {
+        this.triggerDao = triggerDao;
+        this.triggerConverter = triggerConverter;
+        this.persister = persister;
+        this.lockManager = lockManager;
+        this.misfireHandler = misfireHandler;
+        this.recoverer = recoverer;
+        this.signaler = signaler;
+        this.scanIntervalMillis = scanIntervalMillis;
+        this.maxMisfiresToHandleAtATime = maxMisfiresToHandleAtATime;
+    }
+
+    /**
+     * Start scanning, unless disabled by non-positive interval or batch size.
+     */
+    public synchronized void start() {
+        if (scanIntervalMillis <= 0 || maxMisfiresToHandleAtATime <= 0 || executor != null) {
+            return;
+        }
+        log.info("Scanning for misfired triggers every {} ms", scanIntervalMillis);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("quartz-mongodb-misfire-scanner"));
+        executor.scheduleWithFixedDelay(this, 0, scanIntervalMillis, MILLISECONDS);
+        running = true;
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            running = false;
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return true when misfired triggers are handled by this scanner
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int handled = handleMisfires(new BsonDocument());
+            if (handled > 0) {
+                log.info("Handled {} misfired triggers", handled);
+                signaler.signalSchedulingChange(0L);
+            }
+        } catch (JobPersistenceException | RuntimeException e) {
+            log.error("Could not handle misfired triggers: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Apply misfire instructions to misfired triggers among those matching
+     * given filter, in batches of at most {@code maxMisfiresToHandleAtATime}
+     * triggers, see {@link #handleMisfires(List)}. Does nothing when batches
+     * are disabled by non-positive size.
+     *
+     * <p>Resumed triggers are handled this way right away, so that acquisition
+     * doesn't find them misfired one by one after a long pause.</p>
+     *
+     * @param filter    condition on triggers to consider
+     * @return number of triggers rescheduled, removed or recovered
+     * @throws JobPersistenceException when triggers cannot be restored
+     */
+    public int handleMisfires(Bson filter) throws JobPersistenceException {
+        if (maxMisfiresToHandleAtATime <= 0) {
+            return 0;
+        }
+        int handled = 0;
+        int handledInBatch;
+        List<Document> misfired;
+        do {
+            misfired = triggerDao.findMisfired(filter, misfireHandler.getMisfireTime(), maxMisfiresToHandleAtATime)
+                    .into(new ArrayList<Document>(maxMisfiresToHandleAtATime));
+            handledInBatch = handleMisfires(misfired);
+            handled += handledInBatch;
+            // Stop when a whole batch is locked by others or left unchanged,
+            // otherwise it would be found again and again.
+        } while (misfired.size() == maxMisfiresToHandleAtATime && handledInBatch > 0);
+        return handled;
+    }
+
+    /**
+     * Apply misfire instructions to given misfired triggers, keeping them
+     * locked meanwhile. Rescheduled triggers are stored with a single bulk
+     * write, triggers without next fire time are removed.
+     *
+     * <p>Triggers left locked by defunct schedulers are recovered instead,
+     * as acquisition doesn't see misfired triggers while scanner runs.</p>
+     *
+     * @param triggerDocs    misfired triggers
+     * @return number of triggers rescheduled, removed or recovered
+     * @throws JobPersistenceException when triggers cannot be restored
+     */
+    public int handleMisfires(List<Document> triggerDocs) throws JobPersistenceException {
+        if (triggerDocs.isEmpty()) {
+            return 0;
+        }
+        Map<TriggerKey, OperableTrigger> triggers = new LinkedHashMap<TriggerKey, OperableTrigger>();
+        for (OperableTrigger trigger : triggerConverter.toTriggers(triggerDocs)) {
+            triggers.put(trigger.getKey(), trigger);
+        }
+
+        Set<TriggerKey> locked = lockManager.tryLock(new ArrayList<TriggerKey>(triggers.keySet()));
+        List<OperableTrigger> rescheduled = new ArrayList<OperableTrigger>(locked.size());
+        int removed = 0;
+        try {
+            for (TriggerKey key : locked) {
+                OperableTrigger trigger = triggers.get(key);
+                if (misfireHandler.applyMisfire(trigger)) {
+                    if (persister.removeTriggerWithoutNextFireTime(trigger)) {
+                        removed++;
+                    } else {
+                        rescheduled.add(trigger);
+                    }
+                }
+            }
+            persister.updateLockedTriggers(rescheduled);
+        } finally {
+            for (TriggerKey key : locked) {
+                lockManager.unlockAcquiredTrigger(triggers.get(key));
+            }
+        }
+        return rescheduled.size() + removed + recoverExpired(triggers, locked);
+    }
+
+    private int recoverExpired(Map<TriggerKey, OperableTrigger> triggers, Set<TriggerKey> locked)
+            throws JobPersistenceException {
+        int recovered = 0;
+        for (OperableTrigger trigger : triggers.values()) {
+            if (!locked.contains(trigger.getKey()) && lockManager.relockExpired(trigger.getKey())) {
+                log.info("Recovering misfired trigger: {}", trigger.getKey());
+                // Misfired triggers are read without job data, recovery trigger gets a copy of it
+                triggerDao.loadJobData(Collections.singletonList(trigger));
+                recoverer.doRecovery(trigger);
+                lockManager.unlockAcquiredTrigger(trigger);
+                recovered++;
+            }
+        }
+        return recovered;
+    }
+}
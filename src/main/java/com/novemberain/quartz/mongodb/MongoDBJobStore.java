@@ -14,7 +14,10 @@ import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.novemberain.quartz.mongodb.dao.MigrationsDao;
 import com.novemberain.quartz.mongodb.db.MongoConnector;
+import com.novemberain.quartz.mongodb.jobdata.JobDataCodec;
+import com.novemberain.quartz.mongodb.jobdata.JobDataCodecs;
 import com.novemberain.quartz.mongodb.util.Keys;
 import org.bson.Document;
 import org.quartz.*;
@@ -26,7 +29,6 @@ import org.quartz.spi.*;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 public class MongoDBJobStore implements JobStore, Constants {
@@ -46,11 +48,18 @@ public class MongoDBJobStore implements JobStore, Constants {
     String username;
     String password;
     long misfireThreshold = 5000;
+    int maxMisfiresToHandleAtATime = 20;
     long triggerTimeoutMillis = 10 * 60 * 1000L;
     long jobTimeoutMillis = 10 * 60 * 1000L;
     private boolean clustered = false;
     long clusterCheckinIntervalMillis = 7500;
     boolean jobDataAsBase64 = true;
+    String jobDataCodec = JobDataCodecs.JAVA;
+    int jobDataCompressionThreshold = 0;
+    long calendarCacheMaxStalenessMillis = 0;
+    int jobCacheSize = 0;
+    long eligibleTriggersSampleIntervalMillis = 30 * 1000L;
+    boolean embeddedTriggerLocks = false;
 
     // Options for the Mongo client.
     Boolean mongoOptionSocketKeepAlive;
@@ -93,6 +102,14 @@ public class MongoDBJobStore implements JobStore, Constants {
         return original;
     }
 
+    /**
+     * Forgets job classes resolved by name and cached jobs, so redefined
+     * job classes are loaded again.
+     */
+    public void clearJobClassCache() {
+        assembler.jobDao.clearCaches();
+    }
+
     @Override
     public void initialize(ClassLoadHelper loadHelper, SchedulerSignaler signaler)
             throws SchedulerConfigException {
@@ -108,11 +125,13 @@ public class MongoDBJobStore implements JobStore, Constants {
         }
 
         ensureIndexes();
+        migrateDocuments();
     }
 
     @Override
     public void schedulerStarted() throws SchedulerException {
-        // No-op
+        assembler.eligibleTriggersGauge.start();
+        assembler.misfireScanner.start();
     }
 
     @Override
@@ -126,6 +145,8 @@ public class MongoDBJobStore implements JobStore, Constants {
 
     @Override
     public void shutdown() {
+        assembler.eligibleTriggersGauge.shutdown();
+        assembler.misfireScanner.shutdown();
         assembler.checkinExecutor.shutdown();
         assembler.mongoConnector.close();
     }
@@ -173,12 +194,11 @@ public class MongoDBJobStore implements JobStore, Constants {
      * or {@link Trigger}'s {@link JobDataMap} can be represented
      * as a {@code Map<String,Object>}.
      * <ul>
-     * <li><b>{@code true}</b> (default) - Serialize map with
-     * {@link java.io.ObjectOutputStream ObjectOutputStream}
-     * and store as {@code base64} encoded string in field
-     * '{@value Constants#JOB_DATA}'. Map may contain any
-     * {@link java.io.Serializable Serializable} object
-     * internally, but will have some performance impact.</li>
+     * <li><b>{@code true}</b> (default) - Encode map with
+     * configured codec (see {@link #setJobDataCodec(String)})
+     * and store as binary in field '{@value Constants#JOB_DATA}'.
+     * Map may contain any {@link java.io.Serializable Serializable}
+     * object internally, but will have some performance impact.</li>
      * <li><b>{@code false}</b> - Store map directly in
      * '{@value Constants#JOB_DATA_PLAIN}' field. Use this
      * option is you only store simple types in job data
@@ -190,6 +210,56 @@ public class MongoDBJobStore implements JobStore, Constants {
         this.jobDataAsBase64 = jobDataAsBase64;
     }
 
+    /**
+     * Configures the codec which encodes job data, unless it's
+     * stored as plain object (see {@link #setJobDataAsBase64(boolean)}).
+     * Encoded job data is stored as BSON binary in field
+     * '{@value Constants#JOB_DATA}'.
+     * <ul>
+     * <li><b>{@code java}</b> (default) - Java serialization,
+     * map may contain any {@link java.io.Serializable Serializable}
+     * object.</li>
+     * <li><b>{@code compact}</b> - compact binary format for strings,
+     * numbers, dates and byte arrays, other values are Java serialized
+     * one by one.</li>
+     * <li>class name of a {@link JobDataCodec} implementation.</li>
+     * </ul>
+     * Job data written with any built-in codec, or as {@code base64}
+     * string by older versions, can be read regardless of this setting.
+     */
+    public void setJobDataCodec(String jobDataCodec) {
+        this.jobDataCodec = jobDataCodec;
+    }
+
+    /**
+     * Encoded job data of at least this many bytes is compressed
+     * with Deflate. Compressed job data is detected on read regardless
+     * of this setting. Defaults to 0, which disables compression.
+     */
+    public void setJobDataCompressionThreshold(int jobDataCompressionThreshold) {
+        this.jobDataCompressionThreshold = jobDataCompressionThreshold;
+    }
+
+    /**
+     * Retrieved calendars are cached and used without checking their
+     * version in database for this many milliseconds. Calendars changed
+     * by other nodes may be used up to this long. Defaults to 0, so only
+     * the cheap version check is done on each retrieval.
+     */
+    public void setCalendarCacheMaxStalenessMillis(long calendarCacheMaxStalenessMillis) {
+        this.calendarCacheMaxStalenessMillis = calendarCacheMaxStalenessMillis;
+    }
+
+    /**
+     * Maximum number of jobs, which are cached converted, least recently
+     * used are evicted. Cached job is used only while revision of its
+     * document is the same. Callers get copies of job data map, but
+     * not of its values. Defaults to 0, which disables the cache.
+     */
+    public void setJobCacheSize(int jobCacheSize) {
+        this.jobCacheSize = jobCacheSize;
+    }
+
     /**
      * Job and Trigger storage Methods
      */
@@ -208,19 +278,7 @@ public class MongoDBJobStore implements JobStore, Constants {
     @Override
     public void storeJobsAndTriggers(Map<JobDetail, Set<? extends Trigger>> triggersAndJobs, boolean replace)
             throws JobPersistenceException {
-        for (Entry<JobDetail, Set<? extends Trigger>> entry : triggersAndJobs.entrySet()) {
-
-            JobDetail newJob = entry.getKey();
-            Set<? extends Trigger> triggers = entry.getValue();
-            assembler.jobDao.storeJobInMongo(newJob, replace);
-
-            // Store all triggers of the job.
-            for(Trigger newTrigger: triggers) {
-                // Simply cast to OperableTrigger as in QuartzScheduler.scheduleJobs
-                // http://www.programcreek.com/java-api-examples/index.php?api=org.quartz.spi.OperableTrigger
-                assembler.persister.storeTrigger((OperableTrigger)newTrigger, replace);
-            }
-        }
+        assembler.persister.storeJobsAndTriggers(triggersAndJobs, replace);
     }
 
     @Override
@@ -501,6 +559,16 @@ public class MongoDBJobStore implements JobStore, Constants {
         this.misfireThreshold = misfireThreshold;
     }
 
+    /**
+     * Set the maximum number of misfired triggers handled at a time by
+     * the background misfire scanner, which runs every misfire threshold.
+     * Zero or negative value disables the scanner, misfires are then
+     * handled during acquisition.
+     */
+    public void setMaxMisfiresToHandleAtATime(int maxMisfiresToHandleAtATime) {
+        this.maxMisfiresToHandleAtATime = maxMisfiresToHandleAtATime;
+    }
+
     public void setTriggerTimeoutMillis(long triggerTimeoutMillis) {
         this.triggerTimeoutMillis = triggerTimeoutMillis;
     }
@@ -509,6 +577,35 @@ public class MongoDBJobStore implements JobStore, Constants {
         this.jobTimeoutMillis = jobTimeoutMillis;
     }
 
+    /**
+     * Set how often (in milliseconds) the number of triggers due to fire
+     * is sampled, see {@link #getEligibleTriggersBacklog()}.
+     * Zero or negative value disables sampling.
+     */
+    public void setEligibleTriggersSampleIntervalMillis(long eligibleTriggersSampleIntervalMillis) {
+        this.eligibleTriggersSampleIntervalMillis = eligibleTriggersSampleIntervalMillis;
+    }
+
+    /**
+     * Set whether triggers are locked in their own documents, with a single
+     * atomic update, instead of in the locks collection. Jobs that disallow
+     * concurrent execution are still locked in the locks collection.
+     */
+    public void setEmbeddedTriggerLocks(boolean embeddedTriggerLocks) {
+        this.embeddedTriggerLocks = embeddedTriggerLocks;
+    }
+
+    /**
+     * Return the number of waiting triggers that were due to fire when last sampled.
+     * Growing value means that the scheduler doesn't keep up with triggers.
+     *
+     * @return sampled backlog or {@value EligibleTriggersGauge#NOT_SAMPLED}
+     *         when not sampled (yet)
+     */
+    public long getEligibleTriggersBacklog() {
+        return assembler.eligibleTriggersGauge.getBacklog();
+    }
+
     /**
      * Initializes the indexes for the scheduler collections.
      *
@@ -528,8 +625,13 @@ public class MongoDBJobStore implements JobStore, Constants {
             assembler.jobDao.createIndex();
             assembler.triggerDao.createIndex();
             assembler.locksDao.createIndex(isClustered());
+            if (embeddedTriggerLocks) {
+                assembler.embeddedTriggerLocksDao.createIndex(isClustered());
+            }
             assembler.calendarDao.createIndex();
             assembler.schedulerDao.createIndex();
+            assembler.pausedJobGroupsDao.createIndex();
+            assembler.pausedTriggerGroupsDao.createIndex();
 
             try {
                 // Drop the old indexes that were declared as name then group rather than group then name
@@ -544,6 +646,28 @@ public class MongoDBJobStore implements JobStore, Constants {
         }
     }
 
+    /**
+     * Brings documents stored by previous versions up to date.
+     *
+     * @throws SchedulerConfigException if an error occurred communicating with the MongoDB server.
+     */
+    private void migrateDocuments() throws SchedulerConfigException {
+        try {
+            MigrationsDao migrationsDao = assembler.migrationsDao;
+            if (!migrationsDao.isCompleted(MigrationsDao.JOB_KEYS_IN_TRIGGERS)) {
+                assembler.persister.addMissingJobKeysToTriggers();
+                migrationsDao.complete(MigrationsDao.JOB_KEYS_IN_TRIGGERS);
+            }
+            if (!migrationsDao.isCompleted(MigrationsDao.REVERSED_GROUPS)) {
+                assembler.jobDao.addMissingReversedGroups();
+                assembler.triggerDao.addMissingReversedGroups();
+                migrationsDao.complete(MigrationsDao.REVERSED_GROUPS);
+            }
+        } catch (MongoException e) {
+            throw new SchedulerConfigException("Error while migrating documents", e);
+        }
+    }
+
     public void setMongoOptionMaxConnectionsPerHost(int maxConnectionsPerHost) {
         this.mongoOptionMaxConnectionsPerHost = maxConnectionsPerHost;
     }
@@ -1,6 +1,7 @@
 package com.novemberain.quartz.mongodb;
 
 import com.mongodb.client.MongoCollection;
+import com.novemberain.quartz.mongodb.calendar.CalendarConverter;
 import com.novemberain.quartz.mongodb.cluster.CheckinExecutor;
 import com.novemberain.quartz.mongodb.cluster.CheckinTask;
 import com.novemberain.quartz.mongodb.cluster.RecoveryTriggerFactory;
@@ -8,6 +9,8 @@ import com.novemberain.quartz.mongodb.cluster.TriggerRecoverer;
 import com.novemberain.quartz.mongodb.dao.*;
 import com.novemberain.quartz.mongodb.db.MongoConnector;
 import com.novemberain.quartz.mongodb.db.MongoConnectorBuilder;
+import com.novemberain.quartz.mongodb.jobdata.JobDataCodec;
+import com.novemberain.quartz.mongodb.jobdata.JobDataCodecs;
 import com.novemberain.quartz.mongodb.trigger.MisfireHandler;
 import com.novemberain.quartz.mongodb.trigger.TriggerConverter;
 import com.novemberain.quartz.mongodb.util.Clock;
@@ -30,13 +33,17 @@ public class MongoStoreAssembler {
     public CalendarDao calendarDao;
     public JobDao jobDao;
     public LocksDao locksDao;
+    public EmbeddedTriggerLocksDao embeddedTriggerLocksDao;
     public SchedulerDao schedulerDao;
+    public MigrationsDao migrationsDao;
     public PausedJobGroupsDao pausedJobGroupsDao;
     public PausedTriggerGroupsDao pausedTriggerGroupsDao;
     public TriggerDao triggerDao;
 
     public TriggerRecoverer triggerRecoverer;
     public CheckinExecutor checkinExecutor;
+    public EligibleTriggersGauge eligibleTriggersGauge;
+    public MisfireScanner misfireScanner;
 
     private QueryHelper queryHelper = new QueryHelper();
     private TriggerConverter triggerConverter;
@@ -45,7 +52,7 @@ public class MongoStoreAssembler {
             throws SchedulerConfigException {
         mongoConnector = createMongoConnector(jobStore);
 
-        JobDataConverter jobDataConverter = new JobDataConverter(jobStore.isJobDataAsBase64());
+        JobDataConverter jobDataConverter = createJobDataConverter(jobStore, loadHelper);
 
         jobDao = createJobDao(jobStore, loadHelper, jobDataConverter);
 
@@ -54,30 +61,38 @@ public class MongoStoreAssembler {
         triggerDao = createTriggerDao(jobStore);
         calendarDao = createCalendarDao(jobStore);
         locksDao = createLocksDao(jobStore);
+        embeddedTriggerLocksDao = createEmbeddedTriggerLocksDao(jobStore);
         pausedJobGroupsDao = createPausedJobGroupsDao(jobStore);
         pausedTriggerGroupsDao = createPausedTriggerGroupsDao(jobStore);
         schedulerDao = createSchedulerDao(jobStore);
+        migrationsDao = new MigrationsDao(getCollection(jobStore, "migrations"));
 
         persister = createTriggerAndJobPersister();
 
-        jobCompleteHandler = createJobCompleteHandler(signaler);
-
         lockManager = createLockManager(jobStore);
 
-        triggerStateManager = createTriggerStateManager();
+        jobCompleteHandler = createJobCompleteHandler(signaler);
 
         MisfireHandler misfireHandler = createMisfireHandler(jobStore, signaler);
 
         RecoveryTriggerFactory recoveryTriggerFactory
                 = new RecoveryTriggerFactory(jobStore.instanceId);
 
-        triggerRecoverer = new TriggerRecoverer(locksDao, persister,
+        triggerRecoverer = new TriggerRecoverer(persister,
                 lockManager, triggerDao, jobDao, recoveryTriggerFactory,
                 misfireHandler);
 
+        misfireScanner = new MisfireScanner(triggerDao, triggerConverter, persister, lockManager,
+                misfireHandler, triggerRecoverer, signaler, jobStore.misfireThreshold, jobStore.maxMisfiresToHandleAtATime);
+
+        triggerStateManager = createTriggerStateManager();
+
         triggerRunner = createTriggerRunner(misfireHandler);
 
         checkinExecutor = createCheckinExecutor(jobStore);
+
+        eligibleTriggersGauge = new EligibleTriggersGauge(triggerDao, Clock.SYSTEM_CLOCK,
+                jobStore.eligibleTriggersSampleIntervalMillis);
     }
 
     private CheckinExecutor createCheckinExecutor(MongoDBJobStore jobStore) {
@@ -86,25 +101,44 @@ public class MongoStoreAssembler {
     }
 
     private CalendarDao createCalendarDao(MongoDBJobStore jobStore) {
-        return new CalendarDao(getCollection(jobStore, "calendars"));
+        return new CalendarDao(getCollection(jobStore, "calendars"), new CalendarConverter(),
+                Clock.SYSTEM_CLOCK, jobStore.calendarCacheMaxStalenessMillis);
+    }
+
+    private JobDataConverter createJobDataConverter(MongoDBJobStore jobStore, ClassLoadHelper loadHelper)
+            throws SchedulerConfigException {
+        if (!jobStore.isJobDataAsBase64()) {
+            return new JobDataConverter((JobDataCodec) null);
+        }
+        ClassLoader classLoader = jobStore.getClassLoaderHelper(loadHelper).getClassLoader();
+        return new JobDataConverter(JobDataCodecs.forName(jobStore.jobDataCodec, classLoader),
+                jobStore.jobDataCompressionThreshold);
     }
 
     private JobDao createJobDao(MongoDBJobStore jobStore, ClassLoadHelper loadHelper, JobDataConverter jobDataConverter) {
         JobConverter jobConverter = new JobConverter(jobStore.getClassLoaderHelper(loadHelper), jobDataConverter);
-        return new JobDao(getCollection(jobStore, "jobs"), queryHelper, jobConverter);
+        return new JobDao(getCollection(jobStore, "jobs"), queryHelper, jobConverter, jobStore.jobCacheSize);
     }
 
     private JobCompleteHandler createJobCompleteHandler(SchedulerSignaler signaler) {
-        return new JobCompleteHandler(persister, signaler, jobDao, locksDao, triggerDao);
+        return new JobCompleteHandler(persister, signaler, jobDao, lockManager, triggerDao);
     }
 
     private LocksDao createLocksDao(MongoDBJobStore jobStore) {
         return new LocksDao(getCollection(jobStore, "locks"), Clock.SYSTEM_CLOCK, jobStore.instanceId);
     }
 
+    private EmbeddedTriggerLocksDao createEmbeddedTriggerLocksDao(MongoDBJobStore jobStore) {
+        return new EmbeddedTriggerLocksDao(getCollection(jobStore, "triggers"), Clock.SYSTEM_CLOCK,
+                jobStore.instanceId);
+    }
+
     private LockManager createLockManager(MongoDBJobStore jobStore) {
         ExpiryCalculator expiryCalculator = new ExpiryCalculator(schedulerDao,
                 Clock.SYSTEM_CLOCK, jobStore.jobTimeoutMillis, jobStore.triggerTimeoutMillis);
+        if (jobStore.embeddedTriggerLocks) {
+            return new EmbeddedLockManager(locksDao, embeddedTriggerLocksDao, expiryCalculator);
+        }
         return new LockManager(locksDao, expiryCalculator);
     }
 
@@ -148,7 +182,8 @@ public class MongoStoreAssembler {
     }
 
     private TriggerAndJobPersister createTriggerAndJobPersister() {
-        return new TriggerAndJobPersister(triggerDao, jobDao, triggerConverter);
+        return new TriggerAndJobPersister(triggerDao, jobDao, triggerConverter,
+                pausedTriggerGroupsDao, pausedJobGroupsDao);
     }
 
     private TriggerDao createTriggerDao(MongoDBJobStore jobStore) {
@@ -156,13 +191,13 @@ public class MongoStoreAssembler {
     }
 
     private TriggerRunner createTriggerRunner(MisfireHandler misfireHandler) {
-        return new TriggerRunner(persister, triggerDao, jobDao, locksDao, calendarDao,
-                misfireHandler, triggerConverter, lockManager, triggerRecoverer);
+        return new TriggerRunner(persister, triggerDao, jobDao, calendarDao,
+                misfireHandler, triggerConverter, lockManager, triggerRecoverer, misfireScanner);
     }
 
     private TriggerStateManager createTriggerStateManager() {
         return new TriggerStateManager(triggerDao, jobDao,
-                pausedJobGroupsDao, pausedTriggerGroupsDao, queryHelper);
+                pausedJobGroupsDao, pausedTriggerGroupsDao, queryHelper, misfireScanner, migrationsDao);
     }
 
     private MongoCollection<Document> getCollection(MongoDBJobStore jobStore, String name) {
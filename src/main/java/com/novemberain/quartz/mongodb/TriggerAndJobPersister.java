@@ -1,6 +1,9 @@
 package com.novemberain.quartz.mongodb;
 
+import com.mongodb.client.model.Projections;
 import com.novemberain.quartz.mongodb.dao.JobDao;
+import com.novemberain.quartz.mongodb.dao.PausedJobGroupsDao;
+import com.novemberain.quartz.mongodb.dao.PausedTriggerGroupsDao;
 import com.novemberain.quartz.mongodb.dao.TriggerDao;
 import com.novemberain.quartz.mongodb.trigger.TriggerConverter;
 import com.novemberain.quartz.mongodb.util.Keys;
@@ -10,53 +13,87 @@ import org.bson.types.ObjectId;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
 import org.quartz.JobPersistenceException;
+import org.quartz.ObjectAlreadyExistsException;
+import org.quartz.Trigger;
 import org.quartz.TriggerKey;
 import org.quartz.spi.OperableTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.util.*;
 
 public class TriggerAndJobPersister {
 
     private static final Logger log = LoggerFactory.getLogger(TriggerAndJobPersister.class);
 
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+    private static final int BULK_STORE_CHUNK_SIZE = 1000;
+    private static final Bson JOB_ID_AND_DURABILITY = Projections.include("_id", JobConverter.JOB_DURABILITY);
+
     private final TriggerDao triggerDao;
     private final JobDao jobDao;
     private TriggerConverter triggerConverter;
+    private final PausedTriggerGroupsDao pausedTriggerGroupsDao;
+    private final PausedJobGroupsDao pausedJobGroupsDao;
 
-    public TriggerAndJobPersister(TriggerDao triggerDao, JobDao jobDao, TriggerConverter triggerConverter) {
+    public TriggerAndJobPersister(TriggerDao triggerDao, JobDao jobDao, TriggerConverter triggerConverter,
+                                  PausedTriggerGroupsDao pausedTriggerGroupsDao,
+                                  PausedJobGroupsDao pausedJobGroupsDao) {
         this.triggerDao = triggerDao;
         this.jobDao = jobDao;
         this.triggerConverter = triggerConverter;
+        this.pausedTriggerGroupsDao = pausedTriggerGroupsDao;
+        this.pausedJobGroupsDao = pausedJobGroupsDao;
+    }
+
+    /**
+     * Store job keys in triggers persisted by older versions, so that
+     * triggers can be restored without looking up their jobs.
+     * Triggers of jobs that are gone are left untouched.
+     */
+    public void addMissingJobKeysToTriggers() {
+        List<Document> batch = new ArrayList<Document>(MIGRATION_BATCH_SIZE);
+        for (Document trigger : triggerDao.findWithoutJobKeys().batchSize(MIGRATION_BATCH_SIZE)) {
+            batch.add(trigger);
+            if (batch.size() == MIGRATION_BATCH_SIZE) {
+                addMissingJobKeys(batch);
+                batch.clear();
+            }
+        }
+        addMissingJobKeys(batch);
     }
 
     public List<OperableTrigger> getTriggersForJob(JobKey jobKey) throws JobPersistenceException {
-        final Document doc = jobDao.getJob(jobKey);
-        return triggerDao.getTriggersForJob(doc);
+        return triggerDao.getTriggersForJob(jobDao.getJobId(jobKey));
     }
 
     public boolean removeJob(JobKey jobKey) {
-        Bson keyObject = Keys.toFilter(jobKey);
-        Document item = jobDao.getJob(keyObject);
-        if (item != null) {
-            jobDao.remove(keyObject);
-            triggerDao.removeByJobId(item.get("_id"));
+        ObjectId jobId = jobDao.getJobId(jobKey);
+        if (jobId != null) {
+            jobDao.remove(Keys.toFilter(jobKey));
+            triggerDao.removeByJobId(jobId);
             return true;
         }
         return false;
     }
 
-    public boolean removeJobs(List<JobKey> jobKeys) throws JobPersistenceException {
-        for (JobKey key : jobKeys) {
-            removeJob(key);
-        }
-        return false;
+    /**
+     * Remove jobs and their triggers with a query and two deletes.
+     *
+     * @param jobKeys    keys of jobs to remove
+     * @return true when all jobs were found
+     */
+    public boolean removeJobs(List<JobKey> jobKeys) {
+        Set<JobKey> keys = new HashSet<JobKey>(jobKeys);
+        Collection<ObjectId> jobIds = jobDao.getIds(keys).values();
+        jobDao.removeByIds(jobIds);
+        triggerDao.removeByJobIds(jobIds);
+        return jobIds.size() == keys.size();
     }
 
     public boolean removeTrigger(TriggerKey triggerKey) {
         Bson filter = Keys.toFilter(triggerKey);
-        Document trigger = triggerDao.findTrigger(filter);
+        Document trigger = triggerDao.findTrigger(filter, Projections.include(Constants.TRIGGER_JOB_ID));
         if (trigger != null) {
             removeOrphanedJob(trigger);
             //TODO: check if can .deleteOne(filter) here
@@ -66,12 +103,32 @@ public class TriggerAndJobPersister {
         return false;
     }
 
-    public boolean removeTriggers(List<TriggerKey> triggerKeys) throws JobPersistenceException {
-        //FIXME return boolean allFound = true when all removed
-        for (TriggerKey key : triggerKeys) {
-            removeTrigger(key);
+    /**
+     * Remove triggers, and jobs which are left without triggers and are
+     * not durable, see {@link #removeTrigger(TriggerKey)}. Jobs left
+     * orphaned are found with a single aggregation.
+     *
+     * @param triggerKeys    keys of triggers to remove
+     * @return true when all triggers were found
+     */
+    public boolean removeTriggers(List<TriggerKey> triggerKeys) {
+        Set<TriggerKey> keys = new HashSet<TriggerKey>(triggerKeys);
+        List<Document> triggers = triggerDao.findTriggers(keys);
+
+        List<Object> triggerIds = new ArrayList<Object>(triggers.size());
+        Set<Object> jobIds = new HashSet<Object>();
+        for (Document trigger : triggers) {
+            triggerIds.add(trigger.get("_id"));
+            if (trigger.containsKey(Constants.TRIGGER_JOB_ID)) {
+                jobIds.add(trigger.get(Constants.TRIGGER_JOB_ID));
+            }
         }
-        return false;
+        triggerDao.removeByIds(triggerIds);
+
+        jobIds.removeAll(triggerDao.findReferencedJobIds(jobIds));
+        jobDao.removeNotDurable(jobIds);
+
+        return triggers.size() == keys.size();
     }
 
     public boolean removeTriggerWithoutNextFireTime(OperableTrigger trigger) {
@@ -109,25 +166,116 @@ public class TriggerAndJobPersister {
         storeTrigger(newTrigger, jobId, false);
     }
 
+    /**
+     * Store jobs and their triggers in chunks. Each chunk of jobs is
+     * upserted with a single bulk write, then their triggers are inserted,
+     * or replaced, with another one.
+     *
+     * @param triggersAndJobs    triggers by their jobs
+     * @param replace            whether to replace existing jobs and triggers
+     * @throws ObjectAlreadyExistsException when not replacing and a trigger exists,
+     *                                      nothing is stored then, unless the trigger
+     *                                      has been stored concurrently meanwhile
+     * @throws JobPersistenceException when a trigger has no job
+     */
+    public void storeJobsAndTriggers(Map<JobDetail, Set<? extends Trigger>> triggersAndJobs, boolean replace)
+            throws JobPersistenceException {
+        if (!replace) {
+            checkTriggersDontExist(triggersAndJobs.values());
+        }
+        List<JobDetail> jobs = new ArrayList<JobDetail>(BULK_STORE_CHUNK_SIZE);
+        List<OperableTrigger> triggers = new ArrayList<OperableTrigger>();
+        for (Map.Entry<JobDetail, Set<? extends Trigger>> entry : triggersAndJobs.entrySet()) {
+            jobs.add(entry.getKey());
+            for (Trigger trigger : entry.getValue()) {
+                // Simply cast to OperableTrigger as in QuartzScheduler.scheduleJobs
+                triggers.add((OperableTrigger) trigger);
+            }
+            if (jobs.size() == BULK_STORE_CHUNK_SIZE) {
+                storeChunk(jobs, triggers, replace);
+                jobs.clear();
+                triggers.clear();
+            }
+        }
+        storeChunk(jobs, triggers, replace);
+    }
+
     public void storeTrigger(OperableTrigger newTrigger, boolean replaceExisting)
             throws JobPersistenceException {
         if (newTrigger.getJobKey() == null) {
             throw new JobPersistenceException("Trigger must be associated with a job. Please specify a JobKey.");
         }
 
-        Document doc = jobDao.getJob(Keys.toFilter(newTrigger.getJobKey()));
-        if (doc != null) {
-            storeTrigger(newTrigger, doc.getObjectId("_id"), replaceExisting);
+        ObjectId jobId = jobDao.getJobId(newTrigger.getJobKey());
+        if (jobId != null) {
+            storeTrigger(newTrigger, jobId, replaceExisting);
         } else {
             throw new JobPersistenceException("Could not find job with key " + newTrigger.getJobKey());
         }
     }
 
+    /**
+     * Store changes of a trigger locked by this scheduler, e.g. after
+     * it has fired, leaving its state and lock untouched.
+     * Only scheduling fields are set, job data is not written again.
+     *
+     * @param trigger    locked trigger
+     */
+    public void updateLockedTrigger(OperableTrigger trigger) {
+        triggerDao.update(trigger.getKey(), triggerConverter.toSchedulingFields(trigger));
+    }
+
+    /**
+     * Store changes of triggers locked by this scheduler with a single
+     * bulk write, see {@link #updateLockedTrigger(OperableTrigger)}.
+     *
+     * @param triggers    locked triggers
+     */
+    public void updateLockedTriggers(Collection<OperableTrigger> triggers) {
+        Map<TriggerKey, Document> fieldsByKey = new LinkedHashMap<TriggerKey, Document>();
+        for (OperableTrigger trigger : triggers) {
+            fieldsByKey.put(trigger.getKey(), triggerConverter.toSchedulingFields(trigger));
+        }
+        triggerDao.update(fieldsByKey);
+    }
+
+    private void addMissingJobKeys(List<Document> triggers) {
+        if (triggers.isEmpty()) {
+            return;
+        }
+        Set<Object> jobIds = new HashSet<Object>();
+        for (Document trigger : triggers) {
+            jobIds.add(trigger.get(Constants.TRIGGER_JOB_ID));
+        }
+        Map<Object, JobKey> jobKeys = jobDao.getKeysByIds(jobIds);
+
+        Map<Object, JobKey> triggersJobKeys = new HashMap<Object, JobKey>();
+        for (Document trigger : triggers) {
+            JobKey jobKey = jobKeys.get(trigger.get(Constants.TRIGGER_JOB_ID));
+            if (jobKey != null) {
+                triggersJobKeys.put(trigger.get("_id"), jobKey);
+            }
+        }
+        if (!triggersJobKeys.isEmpty()) {
+            log.info("Storing job keys in {} triggers", triggersJobKeys.size());
+            triggerDao.setJobKeys(triggersJobKeys);
+        }
+    }
+
     private void copyOldJobDataMap(OperableTrigger newTrigger, OperableTrigger trigger) {
         // Copy across the job data map from the old trigger to the new one.
         newTrigger.getJobDataMap().putAll(trigger.getJobDataMap());
     }
 
+    /**
+     * Same as JDBC store, triggers stored into paused groups, or for jobs
+     * in paused groups, are stored paused, so they are never acquired.
+     */
+    private boolean isInPausedGroup(OperableTrigger trigger) {
+        return pausedTriggerGroupsDao.isPaused(trigger.getKey().getGroup())
+                || pausedJobGroupsDao.isPaused(trigger.getJobKey().getGroup());
+    }
+
     private boolean isNotDurable(Document job) {
         return !job.containsKey(JobConverter.JOB_DURABILITY) ||
                 job.get(JobConverter.JOB_DURABILITY).toString().equals("false");
@@ -147,7 +295,7 @@ public class TriggerAndJobPersister {
     private void removeOrphanedJob(Document trigger) {
         if (trigger.containsKey(Constants.TRIGGER_JOB_ID)) {
             // There is only 1 job per trigger so no need to look further.
-            Document job = jobDao.getById(trigger.get(Constants.TRIGGER_JOB_ID));
+            Document job = jobDao.getById(trigger.get(Constants.TRIGGER_JOB_ID), JOB_ID_AND_DURABILITY);
             if (isOrphan(job)) {
                 jobDao.remove(job);
             }
@@ -166,9 +314,92 @@ public class TriggerAndJobPersister {
         }
     }
 
+    /**
+     * Looks up given triggers a chunk at a time, before anything is stored.
+     *
+     * @throws ObjectAlreadyExistsException with first trigger that exists
+     */
+    private void checkTriggersDontExist(Collection<? extends Set<? extends Trigger>> triggerSets)
+            throws ObjectAlreadyExistsException {
+        List<Trigger> chunk = new ArrayList<Trigger>(BULK_STORE_CHUNK_SIZE);
+        for (Set<? extends Trigger> triggers : triggerSets) {
+            for (Trigger trigger : triggers) {
+                chunk.add(trigger);
+                if (chunk.size() == BULK_STORE_CHUNK_SIZE) {
+                    checkTriggersDontExist(chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        checkTriggersDontExist(chunk);
+    }
+
+    private void checkTriggersDontExist(List<Trigger> triggers) throws ObjectAlreadyExistsException {
+        Map<TriggerKey, Trigger> byKey = new LinkedHashMap<TriggerKey, Trigger>(triggers.size());
+        for (Trigger trigger : triggers) {
+            byKey.put(trigger.getKey(), trigger);
+        }
+        Set<TriggerKey> existing = new HashSet<TriggerKey>();
+        for (Document doc : triggerDao.findTriggers(byKey.keySet())) {
+            existing.add(Keys.toTriggerKey(doc));
+        }
+        for (Map.Entry<TriggerKey, Trigger> entry : byKey.entrySet()) {
+            if (existing.contains(entry.getKey())) {
+                throw new ObjectAlreadyExistsException(entry.getValue());
+            }
+        }
+    }
+
+    private void storeChunk(List<JobDetail> jobs, List<OperableTrigger> triggers, boolean replace)
+            throws JobPersistenceException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        log.debug("Storing {} jobs and {} triggers", jobs.size(), triggers.size());
+        Map<JobKey, ObjectId> jobIds = jobDao.storeJobsInMongo(jobs, replace);
+
+        Set<String> pausedTriggerGroups = pausedTriggerGroupsDao.getPausedGroups();
+        Set<String> pausedJobGroups = pausedJobGroupsDao.getPausedGroups();
+        Map<TriggerKey, Document> triggerDocs = new LinkedHashMap<TriggerKey, Document>(triggers.size());
+        for (OperableTrigger trigger : triggers) {
+            Document doc = triggerConverter.toDocument(trigger, findJobId(jobIds, trigger));
+            if (pausedTriggerGroups.contains(trigger.getKey().getGroup())
+                    || pausedJobGroups.contains(trigger.getJobKey().getGroup())) {
+                doc.put(Constants.TRIGGER_STATE, Constants.STATE_PAUSED);
+            }
+            triggerDocs.put(trigger.getKey(), doc);
+        }
+        if (replace) {
+            triggerDao.replace(triggerDocs);
+        } else {
+            // Stored concurrently since checked, stops storing further chunks.
+            triggerDao.insert(new ArrayList<Document>(triggerDocs.values()), triggers);
+        }
+    }
+
+    private ObjectId findJobId(Map<JobKey, ObjectId> jobIds, OperableTrigger trigger)
+            throws JobPersistenceException {
+        if (trigger.getJobKey() == null) {
+            throw new JobPersistenceException("Trigger must be associated with a job. Please specify a JobKey.");
+        }
+        ObjectId jobId = jobIds.get(trigger.getJobKey());
+        if (jobId != null) {
+            return jobId;
+        }
+        // Trigger of a job stored before, not in this batch.
+        jobId = jobDao.getJobId(trigger.getJobKey());
+        if (jobId == null) {
+            throw new JobPersistenceException("Could not find job with key " + trigger.getJobKey());
+        }
+        return jobId;
+    }
+
     private void storeTrigger(OperableTrigger newTrigger, ObjectId jobId, boolean replaceExisting)
             throws JobPersistenceException {
         Document trigger = triggerConverter.toDocument(newTrigger, jobId);
+        if (isInPausedGroup(newTrigger)) {
+            trigger.put(Constants.TRIGGER_STATE, Constants.STATE_PAUSED);
+        }
         if (replaceExisting) {
             trigger.remove("_id");
             triggerDao.replace(newTrigger.getKey(), trigger);
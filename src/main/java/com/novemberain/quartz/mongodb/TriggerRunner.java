@@ -1,14 +1,14 @@
 package com.novemberain.quartz.mongodb;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.novemberain.quartz.mongodb.cluster.TriggerRecoverer;
 import com.novemberain.quartz.mongodb.dao.CalendarDao;
 import com.novemberain.quartz.mongodb.dao.JobDao;
-import com.novemberain.quartz.mongodb.dao.LocksDao;
 import com.novemberain.quartz.mongodb.dao.TriggerDao;
 import com.novemberain.quartz.mongodb.trigger.MisfireHandler;
 import com.novemberain.quartz.mongodb.trigger.TriggerConverter;
-import org.bson.Document;
 import org.quartz.*;
 import org.quartz.Calendar;
 import org.quartz.spi.OperableTrigger;
@@ -31,6 +31,8 @@ public class TriggerRunner {
         }
     };
 
+    private static final int MAX_CANDIDATES_PAGE_SIZE = 1000;
+
     private MisfireHandler misfireHandler;
     private TriggerAndJobPersister persister;
     private TriggerDao triggerDao;
@@ -38,22 +40,22 @@ public class TriggerRunner {
     private LockManager lockManager;
     private TriggerRecoverer recoverer;
     private JobDao jobDao;
-    private LocksDao locksDao;
     private CalendarDao calendarDao;
+    private MisfireScanner misfireScanner;
 
-    public TriggerRunner(TriggerAndJobPersister persister, TriggerDao triggerDao, JobDao jobDao, LocksDao locksDao,
+    public TriggerRunner(TriggerAndJobPersister persister, TriggerDao triggerDao, JobDao jobDao,
                          CalendarDao calendarDao, MisfireHandler misfireHandler,
                          TriggerConverter triggerConverter, LockManager lockManager,
-                         TriggerRecoverer recoverer) {
+                         TriggerRecoverer recoverer, MisfireScanner misfireScanner) {
         this.persister = persister;
         this.triggerDao = triggerDao;
         this.jobDao = jobDao;
-        this.locksDao = locksDao;
         this.calendarDao = calendarDao;
         this.misfireHandler = misfireHandler;
         this.triggerConverter = triggerConverter;
         this.lockManager = lockManager;
         this.recoverer = recoverer;
+        this.misfireScanner = misfireScanner;
     }
 
     public List<OperableTrigger> acquireNext(long noLaterThan, int maxCount, long timeWindow)
@@ -73,29 +75,45 @@ public class TriggerRunner {
         return triggers;
     }
 
+    /**
+     * Fire given acquired triggers. Calendars, jobs and job data of
+     * triggers of the whole batch are read once and new fire times
+     * of all fired triggers are stored with a single bulk write.
+     */
     public List<TriggerFiredResult> triggersFired(List<OperableTrigger> triggers)
             throws JobPersistenceException {
         List<TriggerFiredResult> results = new ArrayList<TriggerFiredResult>(triggers.size());
+        if (triggers.isEmpty()) {
+            return results;
+        }
+
+        Map<String, Calendar> calendars = retrieveCalendars(triggers);
+        Map<JobKey, JobDetail> jobs = retrieveJobs(triggers);
+        // Triggers are acquired without their job data, it's read only for triggers about to fire.
+        triggerDao.loadJobData(triggers);
 
+        List<OperableTrigger> fired = new ArrayList<OperableTrigger>(triggers.size());
         for (OperableTrigger trigger : triggers) {
             log.debug("Fired trigger {}", trigger.getKey());
 
-            TriggerFiredBundle bundle = createTriggerFiredBundle(trigger);
+            TriggerFiredBundle bundle = createTriggerFiredBundle(trigger,
+                    calendars.get(trigger.getCalendarName()), jobs.get(trigger.getJobKey()));
 
             if (hasJobDetail(bundle)) {
                 JobDetail job = bundle.getJobDetail();
                 try {
                     lockManager.lockJob(job);
                     results.add(new TriggerFiredResult(bundle));
-                    persister.storeTrigger(trigger, true);
+                    fired.add(trigger);
                 } catch (MongoWriteException dk) {
                     log.debug("Job disallows concurrent execution and is already running {}", job.getKey());
-                    locksDao.unlockTrigger(trigger);
+                    lockManager.unlockAcquiredTrigger(trigger);
                     lockManager.unlockExpired(job);
                 }
             }
-
         }
+
+        updateFiredTriggers(fired);
         return results;
     }
 
@@ -103,37 +121,96 @@ public class TriggerRunner {
             throws JobPersistenceException {
         Map<TriggerKey, OperableTrigger> triggers = new HashMap<TriggerKey, OperableTrigger>();
 
-        for (Document triggerDoc : triggerDao.findEligibleToRun(noLaterThanDate)) {
+        for (OperableTrigger trigger : triggerConverter.toTriggers(
+                lockManager.findTriggersWithExpiredLocks(noLaterThanDate, maxCount))) {
             if (acquiredEnough(triggers, maxCount)) {
                 break;
             }
+            recoverExpired(triggers, trigger);
+        }
+
+        Date misfireTime = misfireScanner.isRunning() ? misfireHandler.getMisfireTime() : null;
+        // Usually the first maxCount candidates are enough. When some of them are
+        // locked by other nodes or turn out not acquirable, read further pages,
+        // doubling their size each time to keep the number of queries low.
+        // Each page starts at the next fire time reached, leaving out triggers
+        // read with that fire time already. Unlike skip, it doesn't pass over
+        // triggers when those read before are locked, rescheduled or removed.
+        Date notBefore = null;
+        Set<TriggerKey> readAtNotBefore = new HashSet<TriggerKey>();
+        int orphans = 0;
+        int pageSize = Math.max(maxCount, 1);
+        boolean hasMoreCandidates = true;
+        while (hasMoreCandidates && !acquiredEnough(triggers, maxCount)) {
+            // Triggers read before may be read again, don't let them fill the page.
+            int limit = pageSize + readAtNotBefore.size() + orphans;
+            List<OperableTrigger> candidates = triggerDao.findTriggersEligibleToRun(
+                    noLaterThanDate, misfireTime, notBefore, limit);
+            List<OperableTrigger> candidateTriggers = new ArrayList<OperableTrigger>(candidates.size());
+            for (OperableTrigger trigger : candidates) {
+                if (trigger == null) {
+                    orphans++;
+                } else if (!readAtNotBefore.contains(trigger.getKey())) {
+                    Date nextFireTime = trigger.getNextFireTime();
+                    if (nextFireTime != null && (notBefore == null || nextFireTime.after(notBefore))) {
+                        notBefore = nextFireTime;
+                        readAtNotBefore.clear();
+                    }
+                    readAtNotBefore.add(trigger.getKey());
+                    candidateTriggers.add(trigger);
+                }
+            }
+            int next = 0;
+            while (next < candidateTriggers.size() && !acquiredEnough(triggers, maxCount)) {
+                // Don't lock more than still needed, extra locks would only block other nodes.
+                int end = Math.min(candidateTriggers.size(), next + maxCount - triggers.size());
+                acquireTriggers(triggers, candidateTriggers.subList(next, end), noLaterThanDate, maxCount);
+                next = end;
+            }
+            hasMoreCandidates = candidates.size() == limit;
+            pageSize = Math.min(pageSize * 2, MAX_CANDIDATES_PAGE_SIZE);
+        }
 
-            OperableTrigger trigger = triggerConverter.toTrigger(triggerDoc);
+        return new ArrayList<OperableTrigger>(triggers.values());
+    }
 
-            if (cannotAcquire(triggers, trigger)) {
-                continue;
+    private void acquireTriggers(Map<TriggerKey, OperableTrigger> triggers, List<OperableTrigger> candidates,
+                                 Date noLaterThanDate, int maxCount) throws JobPersistenceException {
+        Map<TriggerKey, OperableTrigger> toLock = new LinkedHashMap<TriggerKey, OperableTrigger>();
+        for (OperableTrigger trigger : candidates) {
+            if (!cannotAcquire(triggers, trigger)) {
+                toLock.put(trigger.getKey(), trigger);
             }
+        }
 
-            TriggerKey key = trigger.getKey();
-            if (lockManager.tryLock(key)) {
+        Set<TriggerKey> locked = lockManager.tryLock(new ArrayList<TriggerKey>(toLock.keySet()));
+        for (OperableTrigger trigger : toLock.values()) {
+            if (locked.contains(trigger.getKey())) {
                 if (prepareForFire(noLaterThanDate, trigger)) {
                     log.info("Acquired trigger: {}", trigger.getKey());
                     triggers.put(trigger.getKey(), trigger);
                 } else {
                     lockManager.unlockAcquiredTrigger(trigger);
                 }
-            } else if (lockManager.relockExpired(key)) {
-                log.info("Recovering trigger: {}", trigger.getKey());
-                OperableTrigger recoveryTrigger = recoverer.doRecovery(trigger);
-                lockManager.unlockAcquiredTrigger(trigger);
-                if (recoveryTrigger != null && lockManager.tryLock(recoveryTrigger.getKey())) {
-                    log.info("Acquired trigger: {}", recoveryTrigger.getKey());
-                    triggers.put(recoveryTrigger.getKey(), recoveryTrigger);
-                }
+            } else if (!acquiredEnough(triggers, maxCount)) {
+                recoverExpired(triggers, trigger);
             }
         }
+    }
 
-        return new ArrayList<OperableTrigger>(triggers.values());
+    private void recoverExpired(Map<TriggerKey, OperableTrigger> triggers, OperableTrigger trigger)
+            throws JobPersistenceException {
+        if (lockManager.relockExpired(trigger.getKey())) {
+            log.info("Recovering trigger: {}", trigger.getKey());
+            // Recovery trigger gets a copy of the job data
+            triggerDao.loadJobData(Collections.singletonList(trigger));
+            OperableTrigger recoveryTrigger = recoverer.doRecovery(trigger);
+            lockManager.unlockAcquiredTrigger(trigger);
+            if (recoveryTrigger != null && lockManager.tryLock(recoveryTrigger.getKey())) {
+                log.info("Acquired trigger: {}", recoveryTrigger.getKey());
+                triggers.put(recoveryTrigger.getKey(), recoveryTrigger);
+            }
+        }
     }
 
     private boolean prepareForFire(Date noLaterThanDate, OperableTrigger trigger)
@@ -165,9 +242,7 @@ public class TriggerRunner {
         return false;
     }
 
-    private TriggerFiredBundle createTriggerFiredBundle(OperableTrigger trigger)
-            throws JobPersistenceException {
-        Calendar cal = calendarDao.retrieveCalendar(trigger.getCalendarName());
+    private TriggerFiredBundle createTriggerFiredBundle(OperableTrigger trigger, Calendar cal, JobDetail job) {
         if (expectedCalendarButNotFound(trigger, cal)) {
             return null;
         }
@@ -175,7 +250,7 @@ public class TriggerRunner {
         Date prevFireTime = trigger.getPreviousFireTime();
         trigger.triggered(cal);
 
-        return new TriggerFiredBundle(retrieveJob(trigger), trigger, cal,
+        return new TriggerFiredBundle(job, trigger, cal,
                 isRecovering(trigger), new Date(),
                 trigger.getPreviousFireTime(), prevFireTime,
                 trigger.getNextFireTime());
@@ -196,7 +271,7 @@ public class TriggerRunner {
     private boolean notAcquirableAfterMisfire(Date noLaterThanDate, OperableTrigger trigger)
             throws JobPersistenceException {
         if (misfireHandler.applyMisfire(trigger)) {
-            persister.storeTrigger(trigger, true);
+            persister.updateLockedTrigger(trigger);
 
             log.debug("Misfire trigger {}.", trigger.getKey());
 
@@ -216,12 +291,44 @@ public class TriggerRunner {
         return false;
     }
 
-    private JobDetail retrieveJob(OperableTrigger trigger) throws JobPersistenceException {
+    private Map<String, Calendar> retrieveCalendars(List<OperableTrigger> triggers)
+            throws JobPersistenceException {
+        Set<String> names = new HashSet<String>();
+        for (OperableTrigger trigger : triggers) {
+            if (trigger.getCalendarName() != null) {
+                names.add(trigger.getCalendarName());
+            }
+        }
+        return calendarDao.retrieveCalendars(names);
+    }
+
+    private Map<JobKey, JobDetail> retrieveJobs(List<OperableTrigger> triggers)
+            throws JobPersistenceException {
+        Set<JobKey> keys = new HashSet<JobKey>();
+        for (OperableTrigger trigger : triggers) {
+            keys.add(trigger.getJobKey());
+        }
         try {
-            return jobDao.retrieveJob(trigger.getJobKey());
+            return jobDao.retrieveJobs(keys);
         } catch (JobPersistenceException e) {
-            locksDao.unlockTrigger(trigger);
+            // None of the batch is fired, let them be acquired again
+            for (OperableTrigger trigger : triggers) {
+                lockManager.unlockAcquiredTrigger(trigger);
+            }
             throw e;
         }
     }
+
+    private void updateFiredTriggers(List<OperableTrigger> fired) {
+        try {
+            persister.updateLockedTriggers(fired);
+        } catch (MongoBulkWriteException e) {
+            // Retry only the failed updates, one by one
+            for (BulkWriteError error : e.getWriteErrors()) {
+                OperableTrigger trigger = fired.get(error.getIndex());
+                log.warn("Could not store fired trigger {} in bulk: {}", trigger.getKey(), error.getMessage());
+                persister.updateLockedTrigger(trigger);
+            }
+        }
+    }
 }
@@ -1,18 +1,24 @@
 package com.novemberain.quartz.mongodb;
 
+import com.mongodb.client.model.Filters;
 import com.novemberain.quartz.mongodb.dao.JobDao;
+import com.novemberain.quartz.mongodb.dao.MigrationsDao;
 import com.novemberain.quartz.mongodb.dao.PausedJobGroupsDao;
 import com.novemberain.quartz.mongodb.dao.PausedTriggerGroupsDao;
 import com.novemberain.quartz.mongodb.dao.TriggerDao;
 import com.novemberain.quartz.mongodb.util.GroupHelper;
+import com.novemberain.quartz.mongodb.util.Keys;
 import com.novemberain.quartz.mongodb.util.QueryHelper;
 import com.novemberain.quartz.mongodb.util.TriggerGroupHelper;
+import org.bson.BsonDocument;
 import org.bson.types.ObjectId;
 import org.quartz.JobKey;
+import org.quartz.JobPersistenceException;
 import org.quartz.Trigger.TriggerState;
 import org.quartz.TriggerKey;
 import org.quartz.impl.matchers.GroupMatcher;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -24,16 +30,21 @@ public class TriggerStateManager {
     private PausedJobGroupsDao pausedJobGroupsDao;
     private final PausedTriggerGroupsDao pausedTriggerGroupsDao;
     private final QueryHelper queryHelper;
+    private final MisfireScanner misfireScanner;
+    private final MigrationsDao migrationsDao;
 
     public TriggerStateManager(TriggerDao triggerDao, JobDao jobDao,
                                PausedJobGroupsDao pausedJobGroupsDao,
                                PausedTriggerGroupsDao pausedTriggerGroupsDao,
-                               QueryHelper queryHelper) {
+                               QueryHelper queryHelper, MisfireScanner misfireScanner,
+                               MigrationsDao migrationsDao) {
         this.triggerDao = triggerDao;
         this.jobDao = jobDao;
         this.pausedJobGroupsDao = pausedJobGroupsDao;
         this.pausedTriggerGroupsDao = pausedTriggerGroupsDao;
         this.queryHelper = queryHelper;
+        this.misfireScanner = misfireScanner;
+        this.migrationsDao = migrationsDao;
     }
 
     public Set<String> getPausedTriggerGroups() {
@@ -65,7 +76,7 @@ public class TriggerStateManager {
     }
 
     public void pauseJob(JobKey jobKey) {
-        final ObjectId jobId = jobDao.getJob(jobKey).getObjectId("_id");
+        final ObjectId jobId = jobDao.getJobId(jobKey);
         final TriggerGroupHelper groupHelper = new TriggerGroupHelper(triggerDao.getCollection(), queryHelper);
         List<String> groups = groupHelper.groupsForJobId(jobId);
         triggerDao.setStateByJobId(jobId, Constants.STATE_PAUSED);
@@ -73,45 +84,71 @@ public class TriggerStateManager {
     }
 
     public Collection<String> pauseJobs(GroupMatcher<JobKey> groupMatcher) {
-        final TriggerGroupHelper groupHelper = new TriggerGroupHelper(triggerDao.getCollection(), queryHelper);
-        List<String> groups = groupHelper.groupsForJobIds(jobDao.idsOfMatching(groupMatcher));
+        List<String> groups = triggerGroupsOfJobs(groupMatcher);
         triggerDao.setStateInGroups(groups, Constants.STATE_PAUSED);
-        pausedJobGroupsDao.pauseGroups(groups);
-        return groups;
+        Set<String> jobGroups = jobGroupsThatMatch(groupMatcher);
+        pausedJobGroupsDao.pauseGroups(jobGroups);
+        return jobGroups;
     }
 
-    public void resume(TriggerKey triggerKey) {
-        // TODO: port blocking behavior and misfired triggers handling from StdJDBCDelegate in Quartz
+    /**
+     * Resumed triggers that have misfired meanwhile get their misfire
+     * instructions applied right away, in batches, like by all resume
+     * operations. Blocked states are never stored, so waiting state
+     * is the only one to restore.
+     */
+    public void resume(TriggerKey triggerKey) throws JobPersistenceException {
         triggerDao.setState(triggerKey, Constants.STATE_WAITING);
+        misfireScanner.handleMisfires(Keys.toFilter(triggerKey));
     }
 
-    public Collection<String> resume(GroupMatcher<TriggerKey> matcher) {
+    public Collection<String> resume(GroupMatcher<TriggerKey> matcher) throws JobPersistenceException {
         triggerDao.setStateInMatching(matcher, Constants.STATE_WAITING);
 
         final GroupHelper groupHelper = new GroupHelper(triggerDao.getCollection(), queryHelper);
         final Set<String> set = groupHelper.groupsThatMatch(matcher);
         pausedTriggerGroupsDao.unpauseGroups(set);
+        misfireScanner.handleMisfires(queryHelper.inGroups(set));
         return set;
     }
 
-    public void resume(JobKey jobKey) {
-        final ObjectId jobId = jobDao.getJob(jobKey).getObjectId("_id");
-        // TODO: port blocking behavior and misfired triggers handling from StdJDBCDelegate in Quartz
+    public void resume(JobKey jobKey) throws JobPersistenceException {
+        final ObjectId jobId = jobDao.getJobId(jobKey);
         triggerDao.setStateByJobId(jobId, Constants.STATE_WAITING);
+        misfireScanner.handleMisfires(Filters.eq(Constants.TRIGGER_JOB_ID, jobId));
     }
 
-    public void resumeAll() {
-        final GroupHelper groupHelper = new GroupHelper(triggerDao.getCollection(), queryHelper);
-        triggerDao.setStateInAll(Constants.STATE_WAITING);
-        pausedTriggerGroupsDao.unpauseGroups(groupHelper.allGroups());
+    public void resumeAll() throws JobPersistenceException {
+        triggerDao.setStateInAll(Constants.STATE_PAUSED, Constants.STATE_WAITING);
+        pausedTriggerGroupsDao.remove();
+        misfireScanner.handleMisfires(new BsonDocument());
     }
 
-    public Collection<String> resumeJobs(GroupMatcher<JobKey> groupMatcher) {
-        final TriggerGroupHelper groupHelper = new TriggerGroupHelper(triggerDao.getCollection(), queryHelper);
-        List<String> groups = groupHelper.groupsForJobIds(jobDao.idsOfMatching(groupMatcher));
+    public Collection<String> resumeJobs(GroupMatcher<JobKey> groupMatcher) throws JobPersistenceException {
+        List<String> groups = triggerGroupsOfJobs(groupMatcher);
         triggerDao.setStateInGroups(groups, Constants.STATE_WAITING);
-        pausedJobGroupsDao.unpauseGroups(groups);
-        return groups;
+        Set<String> jobGroups = jobGroupsThatMatch(groupMatcher);
+        pausedJobGroupsDao.unpauseGroups(jobGroups);
+        misfireScanner.handleMisfires(queryHelper.inGroups(groups));
+        return jobGroups;
+    }
+
+    /**
+     * Groups of triggers of jobs in matching groups are found from job
+     * groups stored with triggers. Only until job keys are added to triggers
+     * stored by previous versions, ids of matching jobs are streamed as well.
+     */
+    private List<String> triggerGroupsOfJobs(GroupMatcher<JobKey> groupMatcher) {
+        final TriggerGroupHelper groupHelper = new TriggerGroupHelper(triggerDao.getCollection(), queryHelper);
+        Set<String> groups = groupHelper.groupsForJobGroupsThatMatch(groupMatcher);
+        if (!migrationsDao.isCompleted(MigrationsDao.JOB_KEYS_IN_TRIGGERS)) {
+            groups.addAll(groupHelper.groupsForJobIds(jobDao.idsOfMatching(groupMatcher)));
+        }
+        return new ArrayList<String>(groups);
+    }
+
+    private Set<String> jobGroupsThatMatch(GroupMatcher<JobKey> groupMatcher) {
+        return new GroupHelper(jobDao.getCollection(), queryHelper).groupsThatMatch(groupMatcher);
     }
 
     private TriggerState getTriggerState(String value) {
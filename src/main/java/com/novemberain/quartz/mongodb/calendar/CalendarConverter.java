@@ -0,0 +1,74 @@
+package com.novemberain.quartz.mongodb.calendar;
+
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.JobPersistenceException;
+import org.quartz.impl.calendar.BaseCalendar;
+
+import java.util.TimeZone;
+
+/**
+ * Converts standard Quartz calendars, including their base calendars,
+ * into documents, so they don't need Java serialization.
+ */
+public class CalendarConverter {
+
+    private static final String CALENDAR_TYPE = "type";
+    private static final String CALENDAR_DESCRIPTION = "description";
+    private static final String CALENDAR_TIME_ZONE = "timeZone";
+    private static final String CALENDAR_BASE_CALENDAR = "baseCalendar";
+
+    /**
+     * Converts calendar into document.
+     *
+     * @param calendar    calendar to convert
+     * @return document or null when the calendar, or any of its base
+     * calendars, is not a standard calendar
+     */
+    public Document toDocument(Calendar calendar) {
+        CalendarPropertiesConverter converter = CalendarPropertiesConverter.getConverterFor(calendar);
+        if (converter == null) {
+            return null;
+        }
+
+        Document doc = new Document(CALENDAR_TYPE, converter.getType())
+                .append(CALENDAR_DESCRIPTION, calendar.getDescription());
+        TimeZone timeZone = ((BaseCalendar) calendar).getTimeZone();
+        if (timeZone != null) {
+            doc.append(CALENDAR_TIME_ZONE, timeZone.getID());
+        }
+        if (calendar.getBaseCalendar() != null) {
+            Document base = toDocument(calendar.getBaseCalendar());
+            if (base == null) {
+                return null;
+            }
+            doc.append(CALENDAR_BASE_CALENDAR, base);
+        }
+        converter.injectProperties(calendar, doc);
+        return doc;
+    }
+
+    /**
+     * Restore calendar from document.
+     *
+     * @param doc    document created by {@link #toDocument(Calendar)}
+     * @return restored calendar
+     * @throws JobPersistenceException when calendar type is unknown or its properties are invalid
+     */
+    public Calendar toCalendar(Document doc) throws JobPersistenceException {
+        String type = doc.getString(CALENDAR_TYPE);
+        CalendarPropertiesConverter converter = CalendarPropertiesConverter.getConverterFor(type);
+        if (converter == null) {
+            throw new JobPersistenceException("Unknown calendar type " + type);
+        }
+
+        Document baseDoc = doc.get(CALENDAR_BASE_CALENDAR, Document.class);
+        Calendar base = baseDoc == null ? null : toCalendar(baseDoc);
+        String timeZoneId = doc.getString(CALENDAR_TIME_ZONE);
+        TimeZone timeZone = timeZoneId == null ? null : TimeZone.getTimeZone(timeZoneId);
+
+        BaseCalendar calendar = converter.createCalendar(doc, base, timeZone);
+        calendar.setDescription(doc.getString(CALENDAR_DESCRIPTION));
+        return calendar;
+    }
+}
@@ -0,0 +1,82 @@
+package com.novemberain.quartz.mongodb.calendar;
+
+import com.novemberain.quartz.mongodb.calendar.properties.AnnualCalendarPropertiesConverter;
+import com.novemberain.quartz.mongodb.calendar.properties.BaseCalendarPropertiesConverter;
+import com.novemberain.quartz.mongodb.calendar.properties.CronCalendarPropertiesConverter;
+import com.novemberain.quartz.mongodb.calendar.properties.DailyCalendarPropertiesConverter;
+import com.novemberain.quartz.mongodb.calendar.properties.HolidayCalendarPropertiesConverter;
+import com.novemberain.quartz.mongodb.calendar.properties.MonthlyCalendarPropertiesConverter;
+import com.novemberain.quartz.mongodb.calendar.properties.WeeklyCalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.JobPersistenceException;
+import org.quartz.impl.calendar.BaseCalendar;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Converts calendar type specific properties.
+ */
+public abstract class CalendarPropertiesConverter {
+
+    private static final List<CalendarPropertiesConverter> propertiesConverters = Arrays.asList(
+            new BaseCalendarPropertiesConverter(),
+            new AnnualCalendarPropertiesConverter(),
+            new CronCalendarPropertiesConverter(),
+            new DailyCalendarPropertiesConverter(),
+            new HolidayCalendarPropertiesConverter(),
+            new MonthlyCalendarPropertiesConverter(),
+            new WeeklyCalendarPropertiesConverter());
+
+    /**
+     * Returns properties converter for given calendar or null when not found.
+     * Only the standard calendar classes are handled, not their subclasses,
+     * which may have state of their own.
+     *
+     * @param calendar    a calendar instance
+     * @return converter or null
+     */
+    public static CalendarPropertiesConverter getConverterFor(Calendar calendar) {
+        for (CalendarPropertiesConverter converter : propertiesConverters) {
+            if (converter.getCalendarClass() == calendar.getClass()) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns properties converter for given calendar type or null when not found.
+     *
+     * @param type    type stored with calendar
+     * @return converter or null
+     */
+    public static CalendarPropertiesConverter getConverterFor(String type) {
+        for (CalendarPropertiesConverter converter : propertiesConverters) {
+            if (converter.getType().equals(type)) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    protected abstract Class<? extends BaseCalendar> getCalendarClass();
+
+    public abstract String getType();
+
+    public abstract void injectProperties(Calendar calendar, Document doc);
+
+    /**
+     * Creates calendar of this type from stored properties.
+     *
+     * @param stored          document of the calendar
+     * @param baseCalendar    restored base calendar or null
+     * @param timeZone        time zone of the calendar or null for default
+     * @return new calendar
+     * @throws JobPersistenceException when properties are invalid
+     */
+    public abstract BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone)
+            throws JobPersistenceException;
+}
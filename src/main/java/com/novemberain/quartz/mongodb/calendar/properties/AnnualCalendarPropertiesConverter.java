@@ -0,0 +1,55 @@
+package com.novemberain.quartz.mongodb.calendar.properties;
+
+import com.novemberain.quartz.mongodb.calendar.CalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.impl.calendar.AnnualCalendar;
+import org.quartz.impl.calendar.BaseCalendar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+public class AnnualCalendarPropertiesConverter extends CalendarPropertiesConverter {
+
+    private static final String CALENDAR_EXCLUDED_DAYS = "excludedDays";
+    private static final String MONTH = "month";
+    private static final String DAY = "day";
+
+    @Override
+    protected Class<? extends BaseCalendar> getCalendarClass() {
+        return AnnualCalendar.class;
+    }
+
+    @Override
+    public String getType() {
+        return "annual";
+    }
+
+    @Override
+    public void injectProperties(Calendar calendar, Document doc) {
+        AnnualCalendar c = (AnnualCalendar) calendar;
+        List<Document> days = new ArrayList<Document>();
+        for (java.util.Calendar day : c.getDaysExcluded()) {
+            // Months are stored 1-based, unlike java.util.Calendar
+            days.add(new Document(MONTH, day.get(java.util.Calendar.MONTH) + 1)
+                    .append(DAY, day.get(java.util.Calendar.DAY_OF_MONTH)));
+        }
+        doc.append(CALENDAR_EXCLUDED_DAYS, days);
+    }
+
+    @Override
+    public BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone) {
+        AnnualCalendar c = new AnnualCalendar(baseCalendar, timeZone);
+        @SuppressWarnings("unchecked")
+        List<Document> days = stored.get(CALENDAR_EXCLUDED_DAYS, List.class);
+        for (Document day : days) {
+            java.util.Calendar excluded = java.util.Calendar.getInstance();
+            excluded.clear();
+            excluded.set(java.util.Calendar.MONTH, day.getInteger(MONTH) - 1);
+            excluded.set(java.util.Calendar.DAY_OF_MONTH, day.getInteger(DAY));
+            c.setDayExcluded(excluded, true);
+        }
+        return c;
+    }
+}
@@ -0,0 +1,30 @@
+package com.novemberain.quartz.mongodb.calendar.properties;
+
+import com.novemberain.quartz.mongodb.calendar.CalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.impl.calendar.BaseCalendar;
+
+import java.util.TimeZone;
+
+public class BaseCalendarPropertiesConverter extends CalendarPropertiesConverter {
+
+    @Override
+    protected Class<? extends BaseCalendar> getCalendarClass() {
+        return BaseCalendar.class;
+    }
+
+    @Override
+    public String getType() {
+        return "base";
+    }
+
+    @Override
+    public void injectProperties(Calendar calendar, Document doc) {
+    }
+
+    @Override
+    public BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone) {
+        return new BaseCalendar(baseCalendar, timeZone);
+    }
+}
@@ -0,0 +1,43 @@
+package com.novemberain.quartz.mongodb.calendar.properties;
+
+import com.novemberain.quartz.mongodb.calendar.CalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.JobPersistenceException;
+import org.quartz.impl.calendar.BaseCalendar;
+import org.quartz.impl.calendar.CronCalendar;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+
+public class CronCalendarPropertiesConverter extends CalendarPropertiesConverter {
+
+    private static final String CALENDAR_CRON_EXPRESSION = "cronExpression";
+
+    @Override
+    protected Class<? extends BaseCalendar> getCalendarClass() {
+        return CronCalendar.class;
+    }
+
+    @Override
+    public String getType() {
+        return "cron";
+    }
+
+    @Override
+    public void injectProperties(Calendar calendar, Document doc) {
+        CronCalendar c = (CronCalendar) calendar;
+        doc.append(CALENDAR_CRON_EXPRESSION, c.getCronExpression().getCronExpression());
+    }
+
+    @Override
+    public BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone)
+            throws JobPersistenceException {
+        String expression = stored.getString(CALENDAR_CRON_EXPRESSION);
+        try {
+            return new CronCalendar(baseCalendar, expression, timeZone);
+        } catch (ParseException e) {
+            throw new JobPersistenceException("Invalid cron expression of calendar: " + expression, e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.novemberain.quartz.mongodb.calendar.properties;
+
+import com.novemberain.quartz.mongodb.calendar.CalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.impl.calendar.BaseCalendar;
+import org.quartz.impl.calendar.DailyCalendar;
+
+import java.util.TimeZone;
+
+public class DailyCalendarPropertiesConverter extends CalendarPropertiesConverter {
+
+    /**
+     * Range boundaries are stored as "HH:mm:ss:SSS", as accepted by
+     * {@link DailyCalendar#DailyCalendar(Calendar, String, String)}.
+     */
+    private static final String CALENDAR_RANGE_START = "rangeStart";
+    private static final String CALENDAR_RANGE_END = "rangeEnd";
+    private static final String CALENDAR_INVERT_TIME_RANGE = "invertTimeRange";
+
+    @Override
+    protected Class<? extends BaseCalendar> getCalendarClass() {
+        return DailyCalendar.class;
+    }
+
+    @Override
+    public String getType() {
+        return "daily";
+    }
+
+    @Override
+    public void injectProperties(Calendar calendar, Document doc) {
+        DailyCalendar c = (DailyCalendar) calendar;
+        // DailyCalendar has no getters of its range, read it back for a day
+        // without DST change in the calendar's own time zone.
+        TimeZone timeZone = c.getTimeZone() != null ? c.getTimeZone() : TimeZone.getDefault();
+        java.util.Calendar day = java.util.Calendar.getInstance(timeZone);
+        day.clear();
+        day.set(2000, java.util.Calendar.JANUARY, 3, 12, 0);
+
+        doc.append(CALENDAR_RANGE_START, toTimeOfDay(c.getTimeRangeStartingTimeInMillis(day.getTimeInMillis()), timeZone))
+                .append(CALENDAR_RANGE_END, toTimeOfDay(c.getTimeRangeEndingTimeInMillis(day.getTimeInMillis()), timeZone))
+                .append(CALENDAR_INVERT_TIME_RANGE, c.getInvertTimeRange());
+    }
+
+    @Override
+    public BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone) {
+        DailyCalendar c = new DailyCalendar(baseCalendar,
+                stored.getString(CALENDAR_RANGE_START), stored.getString(CALENDAR_RANGE_END));
+        c.setTimeZone(timeZone);
+        c.setInvertTimeRange(stored.getBoolean(CALENDAR_INVERT_TIME_RANGE, false));
+        return c;
+    }
+
+    private String toTimeOfDay(long time, TimeZone timeZone) {
+        java.util.Calendar c = java.util.Calendar.getInstance(timeZone);
+        c.setTimeInMillis(time);
+        return String.format("%02d:%02d:%02d:%03d",
+                c.get(java.util.Calendar.HOUR_OF_DAY), c.get(java.util.Calendar.MINUTE),
+                c.get(java.util.Calendar.SECOND), c.get(java.util.Calendar.MILLISECOND));
+    }
+}
@@ -0,0 +1,45 @@
+package com.novemberain.quartz.mongodb.calendar.properties;
+
+import com.novemberain.quartz.mongodb.calendar.CalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.impl.calendar.BaseCalendar;
+import org.quartz.impl.calendar.HolidayCalendar;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+public class HolidayCalendarPropertiesConverter extends CalendarPropertiesConverter {
+
+    private static final String CALENDAR_EXCLUDED_DATES = "excludedDates";
+
+    @Override
+    protected Class<? extends BaseCalendar> getCalendarClass() {
+        return HolidayCalendar.class;
+    }
+
+    @Override
+    public String getType() {
+        return "holiday";
+    }
+
+    @Override
+    public void injectProperties(Calendar calendar, Document doc) {
+        HolidayCalendar c = (HolidayCalendar) calendar;
+        doc.append(CALENDAR_EXCLUDED_DATES, new ArrayList<Date>(c.getExcludedDates()));
+    }
+
+    @Override
+    public BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone) {
+        // Time zone has to be set before dates are added, they're truncated to days in it.
+        HolidayCalendar c = new HolidayCalendar(baseCalendar, timeZone);
+        @SuppressWarnings("unchecked")
+        List<Date> dates = stored.get(CALENDAR_EXCLUDED_DATES, List.class);
+        for (Date date : dates) {
+            c.addExcludedDate(date);
+        }
+        return c;
+    }
+}
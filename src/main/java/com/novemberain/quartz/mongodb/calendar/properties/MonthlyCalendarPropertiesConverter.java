@@ -0,0 +1,51 @@
+package com.novemberain.quartz.mongodb.calendar.properties;
+
+import com.novemberain.quartz.mongodb.calendar.CalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.impl.calendar.BaseCalendar;
+import org.quartz.impl.calendar.MonthlyCalendar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+public class MonthlyCalendarPropertiesConverter extends CalendarPropertiesConverter {
+
+    private static final String CALENDAR_EXCLUDED_DAYS = "excludedDays";
+
+    @Override
+    protected Class<? extends BaseCalendar> getCalendarClass() {
+        return MonthlyCalendar.class;
+    }
+
+    @Override
+    public String getType() {
+        return "monthly";
+    }
+
+    @Override
+    public void injectProperties(Calendar calendar, Document doc) {
+        MonthlyCalendar c = (MonthlyCalendar) calendar;
+        List<Integer> days = new ArrayList<Integer>();
+        for (int day = 1; day <= 31; day++) {
+            if (c.isDayExcluded(day)) {
+                days.add(day);
+            }
+        }
+        doc.append(CALENDAR_EXCLUDED_DAYS, days);
+    }
+
+    @Override
+    public BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone) {
+        MonthlyCalendar c = new MonthlyCalendar(baseCalendar, timeZone);
+        boolean[] excluded = new boolean[31];
+        @SuppressWarnings("unchecked")
+        List<Integer> days = stored.get(CALENDAR_EXCLUDED_DAYS, List.class);
+        for (Integer day : days) {
+            excluded[day - 1] = true;
+        }
+        c.setDaysExcluded(excluded);
+        return c;
+    }
+}
@@ -0,0 +1,54 @@
+package com.novemberain.quartz.mongodb.calendar.properties;
+
+import com.novemberain.quartz.mongodb.calendar.CalendarPropertiesConverter;
+import org.bson.Document;
+import org.quartz.Calendar;
+import org.quartz.impl.calendar.BaseCalendar;
+import org.quartz.impl.calendar.WeeklyCalendar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+public class WeeklyCalendarPropertiesConverter extends CalendarPropertiesConverter {
+
+    /**
+     * Excluded days of week, as in {@link java.util.Calendar#DAY_OF_WEEK}.
+     */
+    private static final String CALENDAR_EXCLUDED_DAYS = "excludedDays";
+
+    @Override
+    protected Class<? extends BaseCalendar> getCalendarClass() {
+        return WeeklyCalendar.class;
+    }
+
+    @Override
+    public String getType() {
+        return "weekly";
+    }
+
+    @Override
+    public void injectProperties(Calendar calendar, Document doc) {
+        WeeklyCalendar c = (WeeklyCalendar) calendar;
+        List<Integer> days = new ArrayList<Integer>();
+        for (int day = java.util.Calendar.SUNDAY; day <= java.util.Calendar.SATURDAY; day++) {
+            if (c.isDayExcluded(day)) {
+                days.add(day);
+            }
+        }
+        doc.append(CALENDAR_EXCLUDED_DAYS, days);
+    }
+
+    @Override
+    public BaseCalendar createCalendar(Document stored, Calendar baseCalendar, TimeZone timeZone) {
+        WeeklyCalendar c = new WeeklyCalendar(baseCalendar, timeZone);
+        boolean[] excluded = new boolean[java.util.Calendar.SATURDAY + 1];
+        @SuppressWarnings("unchecked")
+        List<Integer> days = stored.get(CALENDAR_EXCLUDED_DAYS, List.class);
+        for (Integer day : days) {
+            excluded[day] = true;
+        }
+        c.setDaysExcluded(excluded);
+        return c;
+    }
+}
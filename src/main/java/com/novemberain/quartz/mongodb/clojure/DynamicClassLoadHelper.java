@@ -12,9 +12,18 @@ import java.net.URL;
  */
 public class DynamicClassLoadHelper implements ClassLoadHelper {
 
+    private DynamicClassLoader classLoader;
+
+    /**
+     * Returns the same loader on each call. Classes redefined in REPL are
+     * still found, as all dynamic loaders share Clojure's class cache.
+     */
     @Override
-    public ClassLoader getClassLoader() {
-        return new DynamicClassLoader();
+    public synchronized ClassLoader getClassLoader() {
+        if (classLoader == null) {
+            classLoader = new DynamicClassLoader();
+        }
+        return classLoader;
     }
 
     @Override
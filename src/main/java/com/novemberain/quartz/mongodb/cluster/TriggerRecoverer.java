@@ -3,7 +3,6 @@ package com.novemberain.quartz.mongodb.cluster;
 import com.novemberain.quartz.mongodb.LockManager;
 import com.novemberain.quartz.mongodb.TriggerAndJobPersister;
 import com.novemberain.quartz.mongodb.dao.JobDao;
-import com.novemberain.quartz.mongodb.dao.LocksDao;
 import com.novemberain.quartz.mongodb.dao.TriggerDao;
 import com.novemberain.quartz.mongodb.trigger.MisfireHandler;
 import org.quartz.JobPersistenceException;
@@ -16,7 +15,6 @@ public class TriggerRecoverer {
 
     private static final Logger log = LoggerFactory.getLogger(TriggerRecoverer.class);
 
-    private final LocksDao locksDao;
     private final TriggerAndJobPersister persister;
     private final LockManager lockManager;
     private final TriggerDao triggerDao;
@@ -24,11 +22,10 @@ public class TriggerRecoverer {
     private final RecoveryTriggerFactory recoveryTriggerFactory;
     private final MisfireHandler misfireHandler;
 
-    public TriggerRecoverer(LocksDao locksDao, TriggerAndJobPersister persister,
+    public TriggerRecoverer(TriggerAndJobPersister persister,
                             LockManager lockManager, TriggerDao triggerDao,
                             JobDao jobDao, RecoveryTriggerFactory recoveryTriggerFactory,
                             MisfireHandler misfireHandler) {
-        this.locksDao = locksDao;
         this.persister = persister;
         this.lockManager = lockManager;
         this.triggerDao = triggerDao;
@@ -38,7 +35,7 @@ public class TriggerRecoverer {
     }
 
     public void recover() throws JobPersistenceException {
-        for (TriggerKey key : locksDao.findOwnTriggersLocks()) {
+        for (TriggerKey key : lockManager.findOwnTriggersLocks()) {
             OperableTrigger trigger = triggerDao.getTrigger(key);
             if (trigger == null) {
                 continue;
@@ -46,7 +43,7 @@ public class TriggerRecoverer {
 
             // Make the trigger's lock fresh for other nodes,
             // so they don't recover it.
-            if (locksDao.updateOwnLock(trigger.getKey())) {
+            if (lockManager.updateOwnLock(trigger.getKey())) {
                 doRecovery(trigger);
                 lockManager.unlockAcquiredTrigger(trigger);
             }
@@ -86,7 +83,7 @@ public class TriggerRecoverer {
     private void updateMisfires(OperableTrigger trigger) throws JobPersistenceException {
         if (misfireHandler.applyMisfireOnRecovery(trigger)) {
             log.info("Misfire applied. Replacing trigger: {}", trigger.getKey());
-            persister.storeTrigger(trigger, true);
+            persister.updateLockedTrigger(trigger);
         } else {
             //TODO should complete trigger?
             log.warn("Recovery misfire not applied for trigger: {}",
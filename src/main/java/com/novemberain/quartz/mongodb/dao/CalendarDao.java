@@ -4,26 +4,59 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Projections;
+import com.novemberain.quartz.mongodb.calendar.CalendarConverter;
+import com.novemberain.quartz.mongodb.util.Clock;
 import com.novemberain.quartz.mongodb.util.SerialUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.bson.types.Binary;
+import org.bson.types.ObjectId;
 import org.quartz.Calendar;
 import org.quartz.JobPersistenceException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calendars are cached, as they rarely change. Each stored calendar
+ * gets a new version, which is compared with the cached one before
+ * cached calendar is used, unless it has been checked within the last
+ * {@code maxStalenessMillis}.
+ */
 public class CalendarDao {
 
     static final String CALENDAR_NAME = "name";
     static final String CALENDAR_SERIALIZED_OBJECT = "serializedObject";
+    static final String CALENDAR_DOCUMENT = "calendar";
+    static final String CALENDAR_VERSION = "version";
+
+    private static final Bson VERSION_ONLY = Projections.include(CALENDAR_NAME, CALENDAR_VERSION);
 
     private final MongoCollection<Document> calendarCollection;
+    private final CalendarConverter calendarConverter;
+    private final Clock clock;
+    private final long maxStalenessMillis;
+    private final ConcurrentMap<String, CachedCalendar> cache = new ConcurrentHashMap<String, CachedCalendar>();
 
-    public CalendarDao(MongoCollection<Document> calendarCollection) {
+    public CalendarDao(MongoCollection<Document> calendarCollection, CalendarConverter calendarConverter,
+                       Clock clock, long maxStalenessMillis) {
         this.calendarCollection = calendarCollection;
+        this.calendarConverter = calendarConverter;
+        this.clock = clock;
+        this.maxStalenessMillis = maxStalenessMillis;
     }
 
     public void clear() {
         calendarCollection.deleteMany(new Document());
+        cache.clear();
     }
 
     public void createIndex() {
@@ -41,6 +74,7 @@ public class CalendarDao {
     }
 
     public boolean remove(String name) {
+        cache.remove(name);
         Bson searchObj = Filters.eq(CALENDAR_NAME, name);
         if (calendarCollection.count(searchObj) > 0) {
             calendarCollection.deleteMany(searchObj);
@@ -51,19 +85,128 @@ public class CalendarDao {
 
     public Calendar retrieveCalendar(String calName) throws JobPersistenceException {
         if (calName != null) {
-            Bson searchObj = Filters.eq(CALENDAR_NAME, calName);
-            Document doc = calendarCollection.find(searchObj).first();
-            if (doc != null) {
-                Binary serializedCalendar = doc.get(CALENDAR_SERIALIZED_OBJECT, Binary.class);
-                return SerialUtils.deserialize(serializedCalendar, Calendar.class);
-            }
+            return retrieveCalendars(Collections.singleton(calName)).get(calName);
         }
         return null;
     }
-    
+
+    /**
+     * Retrieve calendars with given names with a single query.
+     *
+     * @param calNames    names of calendars
+     * @return calendars by name, missing calendars are left out
+     * @throws JobPersistenceException when a calendar cannot be deserialized
+     */
+    public Map<String, Calendar> retrieveCalendars(Collection<String> calNames) throws JobPersistenceException {
+        Map<String, Calendar> calendars = new HashMap<String, Calendar>();
+        long now = clock.millis();
+        List<String> toCheck = new ArrayList<String>();
+        boolean anyCached = false;
+        for (String name : calNames) {
+            CachedCalendar cached = cache.get(name);
+            if (cached == null) {
+                toCheck.add(name);
+            } else if (now - cached.checkedAt < maxStalenessMillis) {
+                calendars.put(name, cached.copy());
+            } else {
+                toCheck.add(name);
+                anyCached = true;
+            }
+        }
+        if (toCheck.isEmpty()) {
+            return calendars;
+        }
+
+        Collection<String> toLoad = anyCached ? checkVersions(toCheck, now, calendars) : toCheck;
+        if (!toLoad.isEmpty()) {
+            for (Document doc : calendarCollection.find(Filters.in(CALENDAR_NAME, toLoad))) {
+                String name = doc.getString(CALENDAR_NAME);
+                CachedCalendar cached = new CachedCalendar(toCalendar(doc), getVersion(doc), now);
+                cache.put(name, cached);
+                calendars.put(name, cached.copy());
+            }
+        }
+        return calendars;
+    }
+
+    /**
+     * Compares versions of cached calendars with stored ones, fetching
+     * only names and versions. Up to date calendars are put in result.
+     *
+     * @return names of calendars, which need to be loaded
+     */
+    private List<String> checkVersions(List<String> names, long now, Map<String, Calendar> result) {
+        List<String> toLoad = new ArrayList<String>();
+        Set<String> removed = new HashSet<String>(names);
+        for (Document doc : calendarCollection.find(Filters.in(CALENDAR_NAME, names)).projection(VERSION_ONLY)) {
+            String name = doc.getString(CALENDAR_NAME);
+            removed.remove(name);
+            CachedCalendar cached = cache.get(name);
+            if (cached != null && cached.version.equals(getVersion(doc))) {
+                cached.checkedAt = now;
+                result.put(name, cached.copy());
+            } else {
+                toLoad.add(name);
+            }
+        }
+        for (String name : removed) {
+            cache.remove(name);
+        }
+        return toLoad;
+    }
+
+    /**
+     * Calendars stored by previous versions have no version, but their
+     * id changes as well when they are removed and stored again.
+     */
+    private Object getVersion(Document doc) {
+        Object version = doc.get(CALENDAR_VERSION);
+        return version != null ? version : doc.get("_id");
+    }
+
+    private Calendar toCalendar(Document doc) throws JobPersistenceException {
+        Document calendar = doc.get(CALENDAR_DOCUMENT, Document.class);
+        if (calendar != null) {
+            return calendarConverter.toCalendar(calendar);
+        }
+        Binary serializedCalendar = doc.get(CALENDAR_SERIALIZED_OBJECT, Binary.class);
+        return SerialUtils.deserialize(serializedCalendar, Calendar.class);
+    }
+
+    /**
+     * Store calendar as a document when it's one of standard calendars.
+     * All calendars are stored Java serialized as well, so that nodes
+     * of previous versions can still read them during an upgrade.
+     */
     public void store(String name, Calendar calendar) throws JobPersistenceException {
+        cache.remove(name);
         Document doc = new Document(CALENDAR_NAME, name)
-                .append(CALENDAR_SERIALIZED_OBJECT, SerialUtils.serialize(calendar));
+                .append(CALENDAR_VERSION, new ObjectId());
+        Document calendarDoc = calendarConverter.toDocument(calendar);
+        if (calendarDoc != null) {
+            doc.append(CALENDAR_DOCUMENT, calendarDoc);
+        }
+        doc.append(CALENDAR_SERIALIZED_OBJECT, SerialUtils.serialize(calendar));
         calendarCollection.insertOne(doc);
     }
+
+    private static class CachedCalendar {
+
+        final Calendar calendar;
+        final Object version;
+        volatile long checkedAt;
+
+        CachedCalendar(Calendar calendar, Object version, long checkedAt) {
+            this.calendar = calendar;
+            this.version = version;
+            this.checkedAt = checkedAt;
+        }
+
+        /**
+         * Callers get own copy, as calendars are mutable.
+         */
+        Calendar copy() {
+            return (Calendar) calendar.clone();
+        }
+    }
 }
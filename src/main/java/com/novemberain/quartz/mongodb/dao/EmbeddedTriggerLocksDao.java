@@ -0,0 +1,240 @@
+package com.novemberain.quartz.mongodb.dao;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.result.UpdateResult;
+import com.novemberain.quartz.mongodb.Constants;
+import com.novemberain.quartz.mongodb.util.Clock;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.quartz.JobPersistenceException;
+import org.quartz.TriggerKey;
+import org.quartz.spi.OperableTrigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_AND_GROUP_FIELDS;
+import static com.novemberain.quartz.mongodb.util.Keys.toFilter;
+import static com.novemberain.quartz.mongodb.util.Keys.toTriggerKey;
+
+/**
+ * Trigger locks kept in trigger documents themselves, instead of
+ * the locks collection.
+ *
+ * <p>A trigger is locked by atomically switching its state from
+ * '{@value Constants#STATE_WAITING}' to '{@value Constants#STATE_ACQUIRED}'
+ * and stamping it with '{@value Constants#TRIGGER_LOCK}' sub-document,
+ * which has the same '{@value Constants#LOCK_INSTANCE_ID}' and
+ * '{@value Constants#LOCK_TIME}' fields as documents in the locks collection.</p>
+ */
+public class EmbeddedTriggerLocksDao {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedTriggerLocksDao.class);
+
+    private static final String LOCK_INSTANCE_ID_FIELD = Constants.TRIGGER_LOCK + "." + Constants.LOCK_INSTANCE_ID;
+    private static final String LOCK_TIME_FIELD = Constants.TRIGGER_LOCK + "." + Constants.LOCK_TIME;
+
+    private static final Bson ACQUIRED = Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED);
+    private static final Bson WAITING = Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_WAITING);
+
+    private final MongoCollection<Document> triggerCollection;
+    private final Clock clock;
+    public final String instanceId;
+
+    public EmbeddedTriggerLocksDao(MongoCollection<Document> triggerCollection, Clock clock, String instanceId) {
+        this.triggerCollection = triggerCollection;
+        this.clock = clock;
+        this.instanceId = instanceId;
+    }
+
+    public void createIndex(boolean clustered) {
+        IndexOptions onlyAcquired = new IndexOptions().partialFilterExpression(ACQUIRED);
+        triggerCollection.createIndex(Indexes.ascending(LOCK_INSTANCE_ID_FIELD), onlyAcquired);
+        triggerCollection.createIndex(Indexes.ascending(LOCK_TIME_FIELD), onlyAcquired);
+
+        if (!clustered) {
+            // release all triggers locked by this instance on startup
+            triggerCollection.updateMany(createOwnLockFilter(), createUnlockUpdate());
+        }
+    }
+
+    public Document findTriggerLock(TriggerKey key) {
+        Document trigger = triggerCollection
+                .find(Filters.and(toFilter(key), ACQUIRED))
+                .projection(Projections.include(Constants.TRIGGER_LOCK))
+                .first();
+        return trigger == null ? null : trigger.get(Constants.TRIGGER_LOCK, Document.class);
+    }
+
+    public List<TriggerKey> findOwnTriggersLocks() {
+        List<TriggerKey> keys = new LinkedList<>();
+        for (Document doc : triggerCollection.find(createOwnLockFilter()).projection(KEY_AND_GROUP_FIELDS)) {
+            keys.add(toTriggerKey(doc));
+        }
+        return keys;
+    }
+
+    /**
+     * Find locked triggers, due to fire no later than given date,
+     * whose locks are old enough to be expired.
+     *
+     * @param noLaterThanDate    the latest next fire time to consider
+     * @param lockedBefore       locks taken before this time are considered
+     * @param limit              maximal number of triggers to return
+     * @return triggers whose locks may have expired
+     */
+    public FindIterable<Document> findLockedBefore(Date noLaterThanDate, Date lockedBefore, int limit) {
+        return triggerCollection
+                .find(Filters.and(
+                        ACQUIRED,
+                        Filters.lt(LOCK_TIME_FIELD, lockedBefore),
+                        Filters.lte(Constants.TRIGGER_NEXT_FIRE_TIME, noLaterThanDate)))
+                .projection(Projections.exclude("_id", Constants.TRIGGER_STATE, Constants.TRIGGER_LOCK))
+                .limit(limit);
+    }
+
+    /**
+     * Lock given trigger if it's waiting.
+     *
+     * @param key    trigger to lock
+     * @return true when locked by this call
+     */
+    public boolean lockTrigger(TriggerKey key) {
+        log.info("Locking trigger {}", key);
+        UpdateResult result = triggerCollection.updateOne(
+                Filters.and(toFilter(key), WAITING),
+                createLockUpdate(clock.now()));
+        return result.getModifiedCount() == 1;
+    }
+
+    /**
+     * Lock given waiting triggers with a single update.
+     *
+     * <p>Triggers locked meanwhile by other schedulers are not matched
+     * by the update, so the locked ones are read back by the lock
+     * this call has stamped them with.</p>
+     *
+     * @param keys    triggers to lock
+     * @return keys of triggers that have been locked
+     */
+    public Set<TriggerKey> lockTriggers(List<TriggerKey> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        log.info("Locking {} triggers", keys.size());
+        Date lockTime = clock.now();
+        Bson anyOfKeys = createAnyOfKeysFilter(keys);
+        UpdateResult result = triggerCollection.updateMany(
+                Filters.and(anyOfKeys, WAITING),
+                createLockUpdate(lockTime));
+        if (result.getModifiedCount() == 0) {
+            return Collections.emptySet();
+        }
+
+        Set<TriggerKey> locked = new HashSet<TriggerKey>();
+        Bson lockedByThisCall = Filters.and(anyOfKeys, ACQUIRED,
+                Filters.eq(LOCK_INSTANCE_ID_FIELD, instanceId),
+                Filters.eq(LOCK_TIME_FIELD, lockTime));
+        for (Document doc : triggerCollection.find(lockedByThisCall).projection(KEY_AND_GROUP_FIELDS)) {
+            locked.add(toTriggerKey(doc));
+        }
+        return locked;
+    }
+
+    /**
+     * Lock given trigger iff its lock time haven't changed.
+     *
+     * @param key         identifies trigger
+     * @param lockTime    expected current lock time
+     * @return false when not found or caught an exception
+     */
+    public boolean relock(TriggerKey key, Date lockTime) {
+        UpdateResult updateResult;
+        try {
+            updateResult = triggerCollection.updateOne(
+                    Filters.and(toFilter(key), ACQUIRED, Filters.eq(LOCK_TIME_FIELD, lockTime)),
+                    createLockUpdate(clock.now()));
+        } catch (MongoException e) {
+            log.error("Relock failed because: " + e.getMessage(), e);
+            return false;
+        }
+
+        if (updateResult.getModifiedCount() == 1) {
+            log.info("Scheduler {} relocked the trigger: {}", instanceId, key);
+            return true;
+        }
+        log.info("Scheduler {} couldn't relock the trigger {} with lock time: {}",
+                instanceId, key, lockTime.getTime());
+        return false;
+    }
+
+    /**
+     * Reset lock time on own lock.
+     *
+     * @throws JobPersistenceException in case of errors from Mongo
+     * @param key    trigger whose lock to refresh
+     * @return true on successful update
+     */
+    public boolean updateOwnLock(TriggerKey key) throws JobPersistenceException {
+        UpdateResult updateResult;
+        try {
+            updateResult = triggerCollection.updateOne(
+                    Filters.and(toFilter(key), createOwnLockFilter()),
+                    new Document("$set", new Document(LOCK_TIME_FIELD, clock.now())));
+        } catch (MongoException e) {
+            log.error("Lock refresh failed because: " + e.getMessage(), e);
+            throw new JobPersistenceException("Lock refresh for scheduler: " + instanceId, e);
+        }
+
+        if (updateResult.getModifiedCount() == 1) {
+            log.info("Scheduler {} refreshed locking time.", instanceId);
+            return true;
+        }
+        log.info("Scheduler {} couldn't refresh locking time", instanceId);
+        return false;
+    }
+
+    /**
+     * Unlock the trigger if it still belongs to the current scheduler.
+     *
+     * @param trigger    to unlock
+     */
+    public void unlockTrigger(OperableTrigger trigger) {
+        log.info("Unlocking trigger {}.{}", trigger.getKey(), instanceId);
+        triggerCollection.updateOne(
+                Filters.and(toFilter(trigger.getKey()), createOwnLockFilter()),
+                createUnlockUpdate());
+    }
+
+    private Bson createAnyOfKeysFilter(List<TriggerKey> keys) {
+        List<Bson> filters = new ArrayList<Bson>(keys.size());
+        for (TriggerKey key : keys) {
+            filters.add(toFilter(key));
+        }
+        return Filters.or(filters);
+    }
+
+    private Bson createOwnLockFilter() {
+        return Filters.and(ACQUIRED, Filters.eq(LOCK_INSTANCE_ID_FIELD, instanceId));
+    }
+
+    private Document createLockUpdate(Date lockTime) {
+        return new Document("$set", new Document()
+                .append(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED)
+                .append(Constants.TRIGGER_LOCK, new Document()
+                        .append(Constants.LOCK_INSTANCE_ID, instanceId)
+                        .append(Constants.LOCK_TIME, lockTime)));
+    }
+
+    private Document createUnlockUpdate() {
+        return new Document("$set", new Document(Constants.TRIGGER_STATE, Constants.STATE_WAITING))
+                .append("$unset", new Document(Constants.TRIGGER_LOCK, ""));
+    }
+}
@@ -1,15 +1,32 @@
 package com.novemberain.quartz.mongodb.dao;
 
-import com.mongodb.MongoWriteException;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.novemberain.quartz.mongodb.JobConverter;
+import com.novemberain.quartz.mongodb.JobDetailDecoder;
 import com.novemberain.quartz.mongodb.util.GroupHelper;
 import com.novemberain.quartz.mongodb.util.Keys;
 import com.novemberain.quartz.mongodb.util.QueryHelper;
+import org.bson.BSONException;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.quartz.JobDetail;
@@ -24,17 +41,34 @@ import static com.novemberain.quartz.mongodb.util.Keys.toFilter;
 
 public class JobDao {
 
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+    private static final Bson ID_ONLY = Projections.include("_id");
+    private static final Bson KEY_AND_REVISION = Projections.include(
+            Keys.KEY_NAME, Keys.KEY_GROUP, JobConverter.JOB_REVISION);
+
     private final MongoCollection<Document> jobCollection;
     private final QueryHelper queryHelper;
     private final GroupHelper groupHelper;
     private final JobConverter jobConverter;
+    private final JobDetailDecoder jobDecoder;
+    private final JobDetailCache jobCache;
 
     public JobDao(MongoCollection<Document> jobCollection,
                   QueryHelper queryHelper, JobConverter jobConverter) {
+        this(jobCollection, queryHelper, jobConverter, 0);
+    }
+
+    /**
+     * @param jobCacheSize    maximum number of converted jobs to cache, 0 disables caching
+     */
+    public JobDao(MongoCollection<Document> jobCollection,
+                  QueryHelper queryHelper, JobConverter jobConverter, int jobCacheSize) {
         this.jobCollection = jobCollection;
         this.queryHelper = queryHelper;
         this.groupHelper = new GroupHelper(jobCollection, queryHelper);
         this.jobConverter = jobConverter;
+        this.jobDecoder = new JobDetailDecoder(jobConverter, jobCollection.getCodecRegistry());
+        this.jobCache = jobCacheSize > 0 ? new JobDetailCache(jobCacheSize) : null;
     }
 
     public MongoCollection<Document> getCollection() {
@@ -42,11 +76,21 @@ public class JobDao {
     }
 
     public DeleteResult clear() {
+        invalidateAll();
         return jobCollection.deleteMany(new Document());
     }
 
     public void createIndex() {
         jobCollection.createIndex(Keys.KEY_AND_GROUP_FIELDS, new IndexOptions().unique(true));
+        // Serves group matchers comparing ends of groups, see QueryHelper.
+        jobCollection.createIndex(Indexes.ascending(Keys.KEY_GROUP_REVERSED));
+    }
+
+    /**
+     * See {@link GroupHelper#addMissingReversedGroups()}.
+     */
+    public void addMissingReversedGroups() {
+        groupHelper.addMissingReversedGroups();
     }
 
     public void dropIndex() {
@@ -61,12 +105,50 @@ public class JobDao {
         return jobCollection.find(Filters.eq("_id", id)).first();
     }
 
-    public Document getJob(Bson keyObject) {
-        return jobCollection.find(keyObject).first();
+    public Document getById(Object id, Bson projection) {
+        return jobCollection.find(Filters.eq("_id", id)).projection(projection).first();
     }
 
-    public Document getJob(JobKey key) {
-        return getJob(toFilter(key));
+    /**
+     * Find keys of jobs with given ids.
+     *
+     * @param ids    ids of jobs
+     * @return job keys by job id, missing jobs are left out
+     */
+    public Map<Object, JobKey> getKeysByIds(Collection<?> ids) {
+        Map<Object, JobKey> keys = new HashMap<Object, JobKey>(ids.size());
+        for (Document doc : jobCollection.find(Filters.in("_id", ids))
+                .projection(Keys.KEY_AND_GROUP_FIELDS)) {
+            keys.put(doc.get("_id"), Keys.toJobKey(doc));
+        }
+        return keys;
+    }
+
+    /**
+     * @param key    key of the job
+     * @return id of the job, or null when it doesn't exist
+     */
+    public ObjectId getJobId(JobKey key) {
+        Document doc = jobCollection.find(toFilter(key)).projection(ID_ONLY).first();
+        return doc != null ? doc.getObjectId("_id") : null;
+    }
+
+    /**
+     * Find ids of jobs with given keys with a single query.
+     *
+     * @param keys    keys of jobs
+     * @return job ids by key, missing jobs are left out
+     */
+    public Map<JobKey, ObjectId> getIds(Collection<JobKey> keys) {
+        Map<JobKey, ObjectId> ids = new HashMap<JobKey, ObjectId>(keys.size());
+        if (keys.isEmpty()) {
+            return ids;
+        }
+        for (Document doc : jobCollection.find(createAnyOfKeysFilter(keys))
+                .projection(Keys.KEY_AND_GROUP_FIELDS)) {
+            ids.put(Keys.toJobKey(doc), doc.getObjectId("_id"));
+        }
+        return ids;
     }
 
     public int getCount() {
@@ -79,68 +161,264 @@ public class JobDao {
 
     public Set<JobKey> getJobKeys(GroupMatcher<JobKey> matcher) {
         Set<JobKey> keys = new HashSet<JobKey>();
-        Bson query = queryHelper.matchingKeysConditionFor(matcher);
+        Bson query = queryHelper.matchingKeysConditionFor(jobCollection, matcher);
         for (Document doc : jobCollection.find(query).projection(Keys.KEY_AND_GROUP_FIELDS)) {
             keys.add(Keys.toJobKey(doc));
         }
         return keys;
     }
 
-    public Collection<ObjectId> idsOfMatching(GroupMatcher<JobKey> matcher) {
-        List<ObjectId> list = new ArrayList<ObjectId>();
-        for (Document doc : findMatching(matcher)) {
-            list.add(doc.getObjectId("_id"));
-        }
-        return list;
+    public Iterable<ObjectId> idsOfMatching(GroupMatcher<JobKey> matcher) {
+        return groupHelper.idsInGroupsThatMatch(matcher);
     }
 
     public void remove(Bson keyObject) {
+        invalidateAll();
         jobCollection.deleteMany(keyObject);
     }
 
+    public void removeByIds(Collection<?> ids) {
+        if (!ids.isEmpty()) {
+            invalidateByIds(ids);
+            jobCollection.deleteMany(Filters.in("_id", ids));
+        }
+    }
+
+    /**
+     * Remove jobs with given ids that are not durable.
+     *
+     * @param ids    ids of jobs
+     */
+    public void removeNotDurable(Collection<?> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        invalidateByIds(ids);
+        jobCollection.deleteMany(Filters.and(
+                Filters.in("_id", ids),
+                Filters.or(
+                        Filters.exists(JobConverter.JOB_DURABILITY, false),
+                        Filters.in(JobConverter.JOB_DURABILITY, Arrays.<Object>asList(false, "false")))));
+    }
+
     public boolean requestsRecovery(JobKey jobKey) {
-        //TODO check if it's the same as getJobDataMap?
-        Document jobDoc = getJob(jobKey);
+        Document jobDoc = jobCollection.find(toFilter(jobKey))
+                .projection(Projections.include(JobConverter.JOB_REQUESTS_RECOVERY))
+                .first();
         return jobDoc.getBoolean(JobConverter.JOB_REQUESTS_RECOVERY, false);
     }
 
+    /**
+     * Forgets cached jobs and resolved job classes,
+     * see {@link JobConverter#clearClassCache()}.
+     */
+    public void clearCaches() {
+        invalidateAll();
+        jobConverter.clearClassCache();
+    }
+
     public JobDetail retrieveJob(JobKey jobKey) throws JobPersistenceException {
-        Document doc = getJob(jobKey);
-        if (doc == null) {
-            //Return null if job does not exist, per interface
-            return null;
+        //Return null if job does not exist, per interface
+        return retrieveJobs(Collections.singleton(jobKey)).get(jobKey);
+    }
+
+    /**
+     * Retrieve jobs with given keys. When jobs are cached, only keys
+     * and revisions are read first, and only jobs which are not cached
+     * with their current revision are read and converted.
+     *
+     * @param keys    keys of jobs
+     * @return jobs by key, missing jobs are left out
+     * @throws JobPersistenceException when a job cannot be converted
+     */
+    public Map<JobKey, JobDetail> retrieveJobs(Collection<JobKey> keys) throws JobPersistenceException {
+        Map<JobKey, JobDetail> jobs = new HashMap<JobKey, JobDetail>(keys.size());
+        if (keys.isEmpty()) {
+            return jobs;
         }
-        return jobConverter.toJobDetail(doc);
+        if (jobCache == null) {
+            for (JobDetail job : decodeJobs(keys)) {
+                jobs.put(job.getKey(), job);
+            }
+            return jobs;
+        }
+
+        Map<JobKey, Document> toLoad = new HashMap<JobKey, Document>();
+        Set<JobKey> removed = new HashSet<JobKey>(keys);
+        for (Document doc : jobCollection.find(createAnyOfKeysFilter(keys)).projection(KEY_AND_REVISION)) {
+            JobKey key = Keys.toJobKey(doc);
+            removed.remove(key);
+            JobDetail cached = jobCache.get(key, doc.get(JobConverter.JOB_REVISION));
+            if (cached != null) {
+                jobs.put(key, cached);
+            } else {
+                toLoad.put(key, doc);
+            }
+        }
+        jobCache.removeAll(removed);
+
+        for (JobDetail job : decodeJobs(toLoad.keySet())) {
+            // Cached with revision read above, a job stored meanwhile
+            // only fails validation and is loaded again next time.
+            Document doc = toLoad.get(job.getKey());
+            Object revision = doc != null ? doc.get(JobConverter.JOB_REVISION) : null;
+            // Jobs stored by previous versions have no revision to validate them with.
+            if (revision != null) {
+                jobCache.put(doc.get("_id"), revision, job);
+            }
+            jobs.put(job.getKey(), job);
+        }
+        return jobs;
     }
 
+    /**
+     * Find and decode jobs with given keys with a single query.
+     */
+    private List<JobDetail> decodeJobs(Collection<JobKey> keys) throws JobPersistenceException {
+        List<JobDetail> jobs = new ArrayList<JobDetail>(keys.size());
+        if (keys.isEmpty()) {
+            return jobs;
+        }
+        try {
+            for (RawBsonDocument doc : jobCollection.find(createAnyOfKeysFilter(keys), RawBsonDocument.class)) {
+                jobs.add(jobDecoder.decode(doc));
+            }
+            return jobs;
+        } catch (BSONException e) {
+            if (e.getCause() instanceof JobPersistenceException) {
+                throw (JobPersistenceException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Store the job with a single upsert, which returns its id.
+     *
+     * @param newJob             job to store
+     * @param replaceExisting    when false, existing job is left as it is
+     * @return id of stored or existing job
+     * @throws JobPersistenceException when job cannot be converted
+     */
     public ObjectId storeJobInMongo(JobDetail newJob, boolean replaceExisting) throws JobPersistenceException {
-        JobKey key = newJob.getKey();
-
-        Bson keyDbo = toFilter(key);
-        Document job = jobConverter.toDocument(newJob, key);
-
-        Document object = getJob(keyDbo);
-
-        ObjectId objectId = null;
-        if (object != null && replaceExisting) {
-            jobCollection.replaceOne(keyDbo, job);
-        } else if (object == null) {
-            try {
-                jobCollection.insertOne(job);
-                objectId = job.getObjectId("_id");
-            } catch (MongoWriteException e) {
-                // Fine, find it and get its id.
-                object = getJob(keyDbo);
-                objectId = object.getObjectId("_id");
+        invalidate(newJob.getKey());
+        Bson keyDbo = toFilter(newJob.getKey());
+        Document job = jobConverter.toDocument(newJob, newJob.getKey());
+
+        try {
+            return upsert(keyDbo, job, replaceExisting);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != DUPLICATE_KEY_ERROR_CODE) {
+                throw e;
             }
+            // Concurrent upsert has inserted the job meanwhile, now it matches.
+            return upsert(keyDbo, job, replaceExisting);
+        }
+    }
+
+    /**
+     * Store jobs with a single unordered bulk write of upserts,
+     * see {@link #storeJobInMongo(JobDetail, boolean)}.
+     *
+     * @param newJobs            jobs to store
+     * @param replaceExisting    when false, existing jobs are left as they are
+     * @return ids of stored or existing jobs by their keys
+     * @throws JobPersistenceException when a job cannot be converted
+     */
+    public Map<JobKey, ObjectId> storeJobsInMongo(List<JobDetail> newJobs, boolean replaceExisting)
+            throws JobPersistenceException {
+        Map<JobKey, ObjectId> ids = new HashMap<JobKey, ObjectId>(newJobs.size());
+        if (newJobs.isEmpty()) {
+            return ids;
+        }
+        List<WriteModel<Document>> upserts = new ArrayList<WriteModel<Document>>(newJobs.size());
+        for (JobDetail newJob : newJobs) {
+            upserts.add(createUpsert(newJob, replaceExisting));
+        }
+
+        BulkWriteResult result;
+        try {
+            result = jobCollection.bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    throw e;
+                }
+            }
+            // Jobs inserted meanwhile by concurrent upserts, now they match.
+            for (BulkWriteError error : e.getWriteErrors()) {
+                JobDetail newJob = newJobs.get(error.getIndex());
+                ids.put(newJob.getKey(), storeJobInMongo(newJob, replaceExisting));
+            }
+            result = e.getWriteResult();
+        }
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            ids.put(newJobs.get(upsert.getIndex()).getKey(), upsert.getId().asObjectId().getValue());
+        }
+
+        // Only ids of jobs that existed before are not known yet.
+        List<JobKey> keys = new ArrayList<JobKey>();
+        for (JobDetail newJob : newJobs) {
+            if (!ids.containsKey(newJob.getKey())) {
+                keys.add(newJob.getKey());
+            }
+        }
+        ids.putAll(getIds(keys));
+        return ids;
+    }
+
+    private WriteModel<Document> createUpsert(JobDetail newJob, boolean replaceExisting)
+            throws JobPersistenceException {
+        invalidate(newJob.getKey());
+        Bson keyDbo = toFilter(newJob.getKey());
+        Document job = jobConverter.toDocument(newJob, newJob.getKey());
+        if (replaceExisting) {
+            return new ReplaceOneModel<Document>(keyDbo, job, new UpdateOptions().upsert(true));
+        }
+        return new UpdateOneModel<Document>(keyDbo, new Document("$setOnInsert", job),
+                new UpdateOptions().upsert(true));
+    }
+
+    private Bson createAnyOfKeysFilter(Collection<JobKey> keys) {
+        List<Bson> filters = new ArrayList<Bson>(keys.size());
+        for (JobKey key : keys) {
+            filters.add(toFilter(key));
+        }
+        return Filters.or(filters);
+    }
+
+    private ObjectId upsert(Bson keyDbo, Document job, boolean replaceExisting) {
+        Document stored;
+        if (replaceExisting) {
+            stored = jobCollection.findOneAndReplace(keyDbo, job, new FindOneAndReplaceOptions()
+                    .upsert(true)
+                    .projection(ID_ONLY)
+                    .returnDocument(ReturnDocument.AFTER));
         } else {
-            objectId = object.getObjectId("_id");
+            stored = jobCollection.findOneAndUpdate(keyDbo, new Document("$setOnInsert", job),
+                    new FindOneAndUpdateOptions()
+                            .upsert(true)
+                            .projection(ID_ONLY)
+                            .returnDocument(ReturnDocument.AFTER));
+        }
+        return stored.getObjectId("_id");
+    }
+
+    private void invalidate(JobKey key) {
+        if (jobCache != null) {
+            jobCache.remove(key);
         }
+    }
 
-        return objectId;
+    private void invalidateByIds(Collection<?> ids) {
+        if (jobCache != null) {
+            jobCache.removeByIds(ids);
+        }
     }
 
-    private Collection<Document> findMatching(GroupMatcher<JobKey> matcher) {
-        return groupHelper.inGroupsThatMatch(matcher);
+    private void invalidateAll() {
+        if (jobCache != null) {
+            jobCache.clear();
+        }
     }
 }
@@ -0,0 +1,86 @@
+package com.novemberain.quartz.mongodb.dao;
+
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of converted jobs, each valid only for the revision
+ * of job document it was converted from.
+ */
+class JobDetailCache {
+
+    private final Map<JobKey, CachedJob> entries;
+
+    JobDetailCache(final int maxSize) {
+        this.entries = new LinkedHashMap<JobKey, CachedJob>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<JobKey, CachedJob> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return copy of cached job or null when it's not cached with given revision
+     */
+    synchronized JobDetail get(JobKey key, Object revision) {
+        CachedJob cached = entries.get(key);
+        if (cached == null || !cached.revision.equals(revision)) {
+            return null;
+        }
+        return copy(cached.job);
+    }
+
+    synchronized void put(Object id, Object revision, JobDetail job) {
+        entries.put(job.getKey(), new CachedJob(id, revision, copy(job)));
+    }
+
+    synchronized void remove(JobKey key) {
+        entries.remove(key);
+    }
+
+    synchronized void removeAll(Collection<JobKey> keys) {
+        entries.keySet().removeAll(keys);
+    }
+
+    synchronized void removeByIds(Collection<?> ids) {
+        Set<?> idSet = new HashSet<Object>(ids);
+        for (Iterator<CachedJob> it = entries.values().iterator(); it.hasNext(); ) {
+            if (idSet.contains(it.next().id)) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Callers may change job data, so each gets own copy of job data map.
+     * Its values are not copied.
+     */
+    private JobDetail copy(JobDetail job) {
+        return (JobDetail) job.clone();
+    }
+
+    private static class CachedJob {
+
+        final Object id;
+        final Object revision;
+        final JobDetail job;
+
+        CachedJob(Object id, Object revision, JobDetail job) {
+            this.id = id;
+            this.revision = revision;
+            this.job = job;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.novemberain.quartz.mongodb.dao;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.Projections;
 import com.mongodb.client.result.UpdateResult;
 import com.novemberain.quartz.mongodb.util.Clock;
@@ -17,9 +20,7 @@ import org.quartz.spi.OperableTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 import static com.novemberain.quartz.mongodb.Constants.LOCK_INSTANCE_ID;
 import static com.novemberain.quartz.mongodb.util.Keys.*;
@@ -28,6 +29,8 @@ public class LocksDao {
 
     private static final Logger log = LoggerFactory.getLogger(LocksDao.class);
 
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
     private final MongoCollection<Document> locksCollection;
     private Clock clock;
     public final String instanceId;
@@ -92,6 +95,42 @@ public class LocksDao {
         insertLock(lock);
     }
 
+    /**
+     * Lock given triggers with a single unordered insert.
+     *
+     * <p>Triggers already locked by any scheduler are reported by Mongo
+     * as duplicate key errors of single documents and don't stop
+     * locking of the others.</p>
+     *
+     * @param keys    triggers to lock
+     * @return keys of triggers that have been locked
+     */
+    public Set<TriggerKey> lockTriggers(List<TriggerKey> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        log.info("Inserting locks for {} triggers", keys.size());
+        Date lockTime = clock.now();
+        List<Document> locks = new ArrayList<Document>(keys.size());
+        for (TriggerKey key : keys) {
+            locks.add(createTriggerLock(key, instanceId, lockTime));
+        }
+
+        Set<TriggerKey> locked = new LinkedHashSet<TriggerKey>(keys);
+        try {
+            locksCollection.insertMany(locks, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                TriggerKey key = keys.get(error.getIndex());
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    log.warn("Failed to lock trigger {}, reason: {}", key, error.getMessage());
+                }
+                locked.remove(key);
+            }
+        }
+        return locked;
+    }
+
     /**
      * Lock given trigger iff its <b>lockTime</b> haven't changed.
      *
@@ -0,0 +1,68 @@
+package com.novemberain.quartz.mongodb.dao;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Date;
+
+/**
+ * Records migrations of documents stored by previous versions, a document
+ * per completed migration, so they run once instead of on every startup.
+ *
+ * <p>Removing the document of a migration runs it again on next startup,
+ * e.g. when nodes of previous versions have still been storing documents.</p>
+ */
+public class MigrationsDao {
+
+    /**
+     * Job keys added to triggers, see
+     * {@link com.novemberain.quartz.mongodb.TriggerAndJobPersister#addMissingJobKeysToTriggers()}.
+     */
+    public static final String JOB_KEYS_IN_TRIGGERS = "jobKeysInTriggers";
+
+    /**
+     * Reversed groups added to jobs and triggers, see
+     * {@link com.novemberain.quartz.mongodb.util.GroupHelper#addMissingReversedGroups()}.
+     */
+    public static final String REVERSED_GROUPS = "reversedGroups";
+
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+    private static final String COMPLETED_AT = "completedAt";
+
+    private final MongoCollection<Document> migrationsCollection;
+
+    public MigrationsDao(MongoCollection<Document> migrationsCollection) {
+        this.migrationsCollection = migrationsCollection;
+    }
+
+    public MongoCollection<Document> getCollection() {
+        return migrationsCollection;
+    }
+
+    /**
+     * @param migration    name of the migration
+     * @return true when the migration has been completed, by any node
+     */
+    public boolean isCompleted(String migration) {
+        return migrationsCollection.find(Filters.eq("_id", migration)).first() != null;
+    }
+
+    /**
+     * @param migration    name of the completed migration
+     */
+    public void complete(String migration) {
+        try {
+            migrationsCollection.updateOne(Filters.eq("_id", migration),
+                    Updates.set(COMPLETED_AT, new Date()), new UpdateOptions().upsert(true));
+        } catch (MongoWriteException e) {
+            if (e.getError().getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                throw e;
+            }
+            // Completed by another node at the same time.
+        }
+    }
+}
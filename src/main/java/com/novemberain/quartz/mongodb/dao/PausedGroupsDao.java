@@ -0,0 +1,170 @@
+package com.novemberain.quartz.mongodb.dao;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
+
+/**
+ * Registry of paused groups, a document per group. Pausing is
+ * idempotent, groups are upserted by their unique name.
+ *
+ * <p>Paused groups are cached. Every change stores a new version stamp
+ * in a separate document of the same collection, so the cache is
+ * refreshed only when the stamp has changed, also by other nodes.
+ * Nodes of previous versions don't store the stamp, so count of documents
+ * and their greatest id are compared as well, read with the stamp in
+ * a single aggregation.</p>
+ */
+public class PausedGroupsDao {
+
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+    private static final String VERSION_ID = "version";
+    private static final String VERSION = "version";
+    private static final String COUNT = "count";
+    private static final String LAST_ID = "lastId";
+    private static final List<Bson> READ_STAMP = Collections.singletonList(Aggregates.group(null,
+            Accumulators.max(VERSION, "$" + VERSION),
+            Accumulators.sum(COUNT, 1),
+            Accumulators.max(LAST_ID, "$_id")));
+    private static final Bson VERSION_FILTER = Filters.eq("_id", VERSION_ID);
+
+    private final MongoCollection<Document> pausedGroupsCollection;
+    private volatile CachedGroups cached;
+
+    public PausedGroupsDao(MongoCollection<Document> pausedGroupsCollection) {
+        this.pausedGroupsCollection = pausedGroupsCollection;
+    }
+
+    public void createIndex() {
+        removeDuplicates();
+        pausedGroupsCollection.createIndex(Indexes.ascending(KEY_GROUP), new IndexOptions().unique(true));
+    }
+
+    public HashSet<String> getPausedGroups() {
+        return new HashSet<String>(getCachedGroups());
+    }
+
+    public boolean isPaused(String group) {
+        return getCachedGroups().contains(group);
+    }
+
+    public void pauseGroups(Collection<String> groups) {
+        if (groups == null) {
+            throw new IllegalArgumentException("groups cannot be null!");
+        }
+        if (groups.isEmpty()) {
+            return;
+        }
+        List<UpdateOneModel<Document>> upserts = new ArrayList<UpdateOneModel<Document>>(groups.size());
+        for (String group : groups) {
+            upserts.add(new UpdateOneModel<Document>(
+                    Filters.eq(KEY_GROUP, group),
+                    new Document("$setOnInsert", new Document(KEY_GROUP, group)),
+                    new UpdateOptions().upsert(true)));
+        }
+        try {
+            pausedGroupsCollection.bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                // Paused concurrently, it's there already
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    throw e;
+                }
+            }
+        }
+        updateVersion();
+    }
+
+    public void remove() {
+        pausedGroupsCollection.deleteMany(new Document());
+        cached = null;
+    }
+
+    public void unpauseGroups(Collection<String> groups) {
+        if (groups.isEmpty()) {
+            return;
+        }
+        pausedGroupsCollection.deleteMany(Filters.in(KEY_GROUP, groups));
+        updateVersion();
+    }
+
+    private Set<String> getCachedGroups() {
+        Document stamp = readStamp();
+        CachedGroups groups = cached;
+        if (groups == null || !Objects.equals(groups.stamp, stamp)) {
+            // Stamp is read first, so groups are at least as new as it is.
+            groups = new CachedGroups(stamp, pausedGroupsCollection
+                    .distinct(KEY_GROUP, String.class)
+                    .into(new HashSet<String>()));
+            cached = groups;
+        }
+        return groups.groups;
+    }
+
+    /**
+     * Groups inserted by previous versions change greatest id,
+     * removed ones change count of documents.
+     *
+     * @return version stamp, count of documents and greatest id,
+     *         or null when there are no documents
+     */
+    private Document readStamp() {
+        return pausedGroupsCollection.aggregate(READ_STAMP).first();
+    }
+
+    private void updateVersion() {
+        Bson update = new Document("$set", new Document(VERSION, new ObjectId()));
+        try {
+            pausedGroupsCollection.updateOne(VERSION_FILTER, update, new UpdateOptions().upsert(true));
+        } catch (MongoWriteException e) {
+            if (e.getError().getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                throw e;
+            }
+            // Inserted concurrently, now it matches.
+            pausedGroupsCollection.updateOne(VERSION_FILTER, update);
+        }
+        cached = null;
+    }
+
+    /**
+     * Previous versions inserted a group each time it was paused.
+     */
+    private void removeDuplicates() {
+        List<Object> duplicates = new ArrayList<Object>();
+        for (Document group : pausedGroupsCollection.aggregate(Arrays.asList(
+                Aggregates.match(Filters.exists(KEY_GROUP)),
+                Aggregates.group("$" + KEY_GROUP, Accumulators.push("ids", "$_id"))))) {
+            List<?> ids = (List<?>) group.get("ids");
+            duplicates.addAll(ids.subList(1, ids.size()));
+        }
+        if (!duplicates.isEmpty()) {
+            pausedGroupsCollection.deleteMany(Filters.in("_id", duplicates));
+        }
+    }
+
+    private static class CachedGroups {
+        final Document stamp;
+        final Set<String> groups;
+
+        CachedGroups(Document stamp, Set<String> groups) {
+            this.stamp = stamp;
+            this.groups = groups;
+        }
+    }
+}
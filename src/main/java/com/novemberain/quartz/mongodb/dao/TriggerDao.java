@@ -1,51 +1,115 @@
 package com.novemberain.quartz.mongodb.dao;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.novemberain.quartz.mongodb.Constants;
+import com.novemberain.quartz.mongodb.trigger.TriggerDecoder;
 import com.novemberain.quartz.mongodb.trigger.TriggerConverter;
+import com.novemberain.quartz.mongodb.util.GroupHelper;
 import com.novemberain.quartz.mongodb.util.Keys;
 import com.novemberain.quartz.mongodb.util.QueryHelper;
+import org.bson.BSONException;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
+import org.quartz.JobKey;
 import org.quartz.JobPersistenceException;
 import org.quartz.ObjectAlreadyExistsException;
 import org.quartz.Trigger;
 import org.quartz.TriggerKey;
 import org.quartz.impl.matchers.GroupMatcher;
 import org.quartz.spi.OperableTrigger;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
-import static com.mongodb.client.model.Sorts.ascending;
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
 import static com.novemberain.quartz.mongodb.util.Keys.toFilter;
 
 public class TriggerDao {
 
-    private static final Logger log = LoggerFactory.getLogger(TriggerDao.class);
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+    private static final Bson ELIGIBLE_TO_RUN_INDEX = Indexes.compoundIndex(
+            Indexes.ascending(Constants.TRIGGER_STATE, Constants.TRIGGER_NEXT_FIRE_TIME),
+            Indexes.descending(Constants.TRIGGER_PRIORITY));
+
+    private static final Bson ELIGIBLE_TO_RUN_SORT = Sorts.orderBy(
+            Sorts.ascending(Constants.TRIGGER_NEXT_FIRE_TIME),
+            Sorts.descending(Constants.TRIGGER_PRIORITY));
+
+    // Everything is needed to rebuild a trigger, except fields implied by the query
+    // and job data, which is read only for triggers that fire, see findJobData.
+    private static final Bson ELIGIBLE_TO_RUN_PROJECTION = Projections.exclude(
+            "_id", Constants.TRIGGER_STATE, Constants.JOB_DATA, Constants.JOB_DATA_PLAIN);
+
+    private static final Bson WITHOUT_JOB_DATA =
+            Projections.exclude(Constants.JOB_DATA, Constants.JOB_DATA_PLAIN);
+
+    private static final Bson NOT_ACQUIRED = Filters.ne(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED);
+
+    /**
+     * Trigger acquired and released over and over again is not replaced forever.
+     */
+    private static final int MAX_REPLACE_ATTEMPTS = 5;
+
+    private static final Bson STATE_AND_LOCK = Projections.include(Constants.TRIGGER_STATE, Constants.TRIGGER_LOCK);
+
+    private static final Bson KEY_AND_JOB_DATA = Projections.include(
+            Keys.KEY_NAME, Keys.KEY_GROUP, Constants.JOB_DATA, Constants.JOB_DATA_PLAIN);
 
     private MongoCollection<Document> triggerCollection;
     private QueryHelper queryHelper;
     private TriggerConverter triggerConverter;
+    private TriggerDecoder triggerDecoder;
 
     public TriggerDao(MongoCollection<Document> triggerCollection, QueryHelper queryHelper,
                       TriggerConverter triggerConverter) {
         this.triggerCollection = triggerCollection;
         this.queryHelper = queryHelper;
         this.triggerConverter = triggerConverter;
+        this.triggerDecoder = new TriggerDecoder(triggerConverter, triggerCollection.getCodecRegistry());
     }
 
     public void createIndex() {
         triggerCollection.createIndex(Keys.KEY_AND_GROUP_FIELDS,
                 new IndexOptions().unique(true));
+
+        // Serves acquisition: equality on state, range and sort on next fire time,
+        // then priority. Only waiting triggers are ever acquired, so the index
+        // doesn't need to hold the paused/completed ones.
+        triggerCollection.createIndex(ELIGIBLE_TO_RUN_INDEX,
+                new IndexOptions().partialFilterExpression(
+                        Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_WAITING)));
+
+        // Serves group matchers comparing ends of groups, see QueryHelper.
+        triggerCollection.createIndex(Indexes.ascending(Keys.KEY_GROUP_REVERSED));
+
+        // Serves finding trigger groups by job groups, see TriggerGroupHelper,
+        // covering the distinct of trigger groups.
+        triggerCollection.createIndex(Indexes.ascending(Constants.TRIGGER_JOB_GROUP, Keys.KEY_GROUP));
+    }
+
+    /**
+     * See {@link GroupHelper#addMissingReversedGroups()}.
+     */
+    public void addMissingReversedGroups() {
+        new GroupHelper(triggerCollection, queryHelper).addMissingReversedGroups();
     }
 
     public void dropIndex() {
@@ -65,18 +129,136 @@ public class TriggerDao {
         return triggerCollection.count(filter) > 0;
     }
 
-    public FindIterable<Document> findEligibleToRun(Date noLaterThanDate) {
-        Bson query = createNextTriggerQuery(noLaterThanDate);
-        if (log.isInfoEnabled()) {
-            log.info("Found {} triggers which are eligible to be run.", getCount(query));
+    /**
+     * Find triggers that are due to fire no later than given date, in
+     * the order Quartz expects: by next fire time, then by priority.
+     * Misfired ones, handled in background, can be left out. Triggers are
+     * decoded straight from BSON, without their job data.
+     *
+     * <p>Further pages start from the next fire time reached by the previous
+     * one, rather than skip triggers read before: those may be locked,
+     * rescheduled or removed meanwhile, which would shift the offset past
+     * triggers that have not been read yet.</p>
+     *
+     * @param noLaterThanDate    the latest next fire time to consider
+     * @param misfireTime        triggers due before it, unless they ignore misfires,
+     *                           are left out; null to find them as well
+     * @param notBefore          the earliest next fire time to consider, null to
+     *                           include waiting triggers without next fire time
+     * @param limit              maximal number of candidates to return
+     * @return triggers eligible to run, with null in place of triggers
+     * whose job is gone, so that the size is the number of triggers read
+     * @throws JobPersistenceException when a trigger cannot be decoded
+     */
+    public List<OperableTrigger> findTriggersEligibleToRun(Date noLaterThanDate, Date misfireTime,
+                                                           Date notBefore, int limit)
+            throws JobPersistenceException {
+        return decode(findRaw(createNextTriggerQuery(noLaterThanDate, misfireTime, notBefore))
+                .projection(ELIGIBLE_TO_RUN_PROJECTION)
+                .sort(ELIGIBLE_TO_RUN_SORT)
+                .limit(limit));
+    }
+
+    /**
+     * Count triggers that are due to fire no later than given date.
+     * Not meant for acquisition path, see {@link com.novemberain.quartz.mongodb.EligibleTriggersGauge}.
+     *
+     * @param noLaterThanDate    the latest next fire time to consider
+     * @return number of triggers eligible to run
+     */
+    public long countEligibleToRun(Date noLaterThanDate) {
+        return triggerCollection.count(createNextTriggerQuery(noLaterThanDate, null));
+    }
+
+    /**
+     * Find waiting triggers that have misfired, the most overdue first.
+     * Triggers that ignore misfire policy are left out. Job data is not
+     * read, misfired triggers are only rescheduled.
+     *
+     * @param misfireTime    triggers due to fire before it have misfired
+     * @param limit          maximal number of triggers to return
+     * @return misfired triggers
+     */
+    public FindIterable<Document> findMisfired(Date misfireTime, int limit) {
+        return findMisfired(new BsonDocument(), misfireTime, limit);
+    }
+
+    /**
+     * Find misfired triggers among those matching given filter,
+     * see {@link #findMisfired(Date, int)}.
+     *
+     * @param filter         condition on triggers to consider, e.g. resumed ones
+     * @param misfireTime    triggers due to fire before it have misfired
+     * @param limit          maximal number of triggers to return
+     * @return misfired triggers
+     */
+    public FindIterable<Document> findMisfired(Bson filter, Date misfireTime, int limit) {
+        return triggerCollection.find(Filters.and(
+                        filter,
+                        Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_WAITING),
+                        Filters.lt(Constants.TRIGGER_NEXT_FIRE_TIME, misfireTime),
+                        Filters.ne(Constants.TRIGGER_MISFIRE_INSTRUCTION,
+                                Trigger.MISFIRE_INSTRUCTION_IGNORE_MISFIRE_POLICY)))
+                .projection(WITHOUT_JOB_DATA)
+                .sort(Sorts.ascending(Constants.TRIGGER_NEXT_FIRE_TIME))
+                .limit(limit);
+    }
+
+    /**
+     * Find job data of given triggers with a single query, for triggers
+     * read without it, see {@link #findTriggersEligibleToRun(Date, Date, Date, int)}.
+     *
+     * @param keys    keys of triggers
+     * @return documents with keys and job data fields of found triggers
+     */
+    public List<Document> findJobData(Collection<TriggerKey> keys) {
+        List<Document> jobData = new ArrayList<Document>(keys.size());
+        if (keys.isEmpty()) {
+            return jobData;
+        }
+        return triggerCollection.find(createAnyOfKeysFilter(keys))
+                .projection(KEY_AND_JOB_DATA)
+                .into(jobData);
+    }
+
+    /**
+     * Load job data into given triggers read without it, with a single query,
+     * see {@link #findJobData(Collection)}.
+     *
+     * @param triggers    triggers about to fire or to be recovered
+     */
+    public void loadJobData(List<OperableTrigger> triggers) {
+        Map<TriggerKey, OperableTrigger> byKey = new HashMap<TriggerKey, OperableTrigger>(triggers.size());
+        for (OperableTrigger trigger : triggers) {
+            byKey.put(trigger.getKey(), trigger);
+        }
+        for (Document jobData : findJobData(byKey.keySet())) {
+            OperableTrigger trigger = byKey.get(Keys.toTriggerKey(jobData));
+            if (trigger != null) {
+                triggerConverter.loadJobData(jobData, trigger);
+            }
         }
-        return triggerCollection.find(query).sort(ascending(Constants.TRIGGER_NEXT_FIRE_TIME));
+    }
+
+    /**
+     * Find triggers stored without denormalized job keys.
+     *
+     * @return ids of triggers together with ids of their jobs
+     */
+    public FindIterable<Document> findWithoutJobKeys() {
+        return triggerCollection
+                .find(Filters.exists(Constants.TRIGGER_JOB_NAME, false))
+                .projection(Projections.include(Constants.TRIGGER_JOB_ID));
     }
 
     public Document findTrigger(Bson filter) {
         return triggerCollection.find(filter).first();
     }
 
+    public Document findTrigger(Bson filter, Bson projection) {
+        return triggerCollection.find(filter).projection(projection).first();
+    }
+
     public int getCount() {
         return (int) triggerCollection.count();
     }
@@ -86,37 +268,81 @@ public class TriggerDao {
     }
 
     public String getState(TriggerKey triggerKey) {
-        Document doc = findTrigger(triggerKey);
+        Document doc = findTrigger(toFilter(triggerKey), Projections.include(Constants.TRIGGER_STATE));
         return doc.getString(Constants.TRIGGER_STATE);
     }
 
     public OperableTrigger getTrigger(TriggerKey triggerKey) throws JobPersistenceException {
-        Document doc = findTrigger(Keys.toFilter(triggerKey));
-        if (doc == null) {
-            return null;
-        }
-        return triggerConverter.toTrigger(triggerKey, doc);
+        List<OperableTrigger> triggers = decode(findRaw(Keys.toFilter(triggerKey)).limit(1));
+        return triggers.isEmpty() ? null : triggers.get(0);
     }
 
-    public List<OperableTrigger> getTriggersForJob(Document doc) throws JobPersistenceException {
-        final List<OperableTrigger> triggers = new LinkedList<OperableTrigger>();
-        if (doc != null) {
-            for (Document item : findByJobId(doc.get("_id"))) {
-                triggers.add(triggerConverter.toTrigger(item));
-            }
+    /**
+     * Same as {@link #getTrigger(TriggerKey)}, but leaves job data out,
+     * for callers that only look at scheduling fields.
+     */
+    public OperableTrigger getTriggerWithoutJobData(TriggerKey triggerKey) throws JobPersistenceException {
+        List<OperableTrigger> triggers = decode(findRaw(Keys.toFilter(triggerKey))
+                .projection(WITHOUT_JOB_DATA)
+                .limit(1));
+        return triggers.isEmpty() ? null : triggers.get(0);
+    }
+
+    public List<OperableTrigger> getTriggersForJob(ObjectId jobId) throws JobPersistenceException {
+        if (jobId == null) {
+            return new LinkedList<OperableTrigger>();
         }
+        List<OperableTrigger> triggers = decode(
+                findRaw(Filters.eq(Constants.TRIGGER_JOB_ID, jobId)));
+        triggers.removeAll(Collections.singleton(null));
         return triggers;
     }
 
     public Set<TriggerKey> getTriggerKeys(GroupMatcher<TriggerKey> matcher) {
         Set<TriggerKey> keys = new HashSet<TriggerKey>();
-        Bson query = queryHelper.matchingKeysConditionFor(matcher);
+        Bson query = queryHelper.matchingKeysConditionFor(triggerCollection, matcher);
         for (Document doc : triggerCollection.find(query).projection(Keys.KEY_AND_GROUP_FIELDS)) {
             keys.add(Keys.toTriggerKey(doc));
         }
         return keys;
     }
 
+    /**
+     * Find triggers with given keys with a single query.
+     *
+     * @param keys    keys of triggers
+     * @return ids, keys and job ids of found triggers
+     */
+    public List<Document> findTriggers(Collection<TriggerKey> keys) {
+        List<Document> triggers = new ArrayList<Document>(keys.size());
+        if (keys.isEmpty()) {
+            return triggers;
+        }
+        return triggerCollection.find(createAnyOfKeysFilter(keys))
+                .projection(Projections.include(Keys.KEY_NAME, Keys.KEY_GROUP, Constants.TRIGGER_JOB_ID))
+                .into(triggers);
+    }
+
+    /**
+     * Find which of given jobs are still referenced by triggers,
+     * with a single aggregation.
+     *
+     * @param jobIds    ids of jobs
+     * @return ids of jobs that have triggers
+     */
+    public Set<Object> findReferencedJobIds(Collection<?> jobIds) {
+        Set<Object> referenced = new HashSet<Object>();
+        if (jobIds.isEmpty()) {
+            return referenced;
+        }
+        for (Document group : triggerCollection.aggregate(Arrays.asList(
+                Aggregates.match(Filters.in(Constants.TRIGGER_JOB_ID, jobIds)),
+                Aggregates.group("$" + Constants.TRIGGER_JOB_ID)))) {
+            referenced.add(group.get("_id"));
+        }
+        return referenced;
+    }
+
     public boolean hasLastTrigger(Document job) {
         List<Document> referencedTriggers = triggerCollection
                 .find(Filters.eq(Constants.TRIGGER_JOB_ID, job.get("_id")))
@@ -134,6 +360,31 @@ public class TriggerDao {
         }
     }
 
+    /**
+     * Insert triggers with a single unordered bulk write. Triggers that
+     * don't exist yet are inserted even when some of them do.
+     *
+     * @param triggers             documents of triggers
+     * @param offendingTriggers    triggers in the order of documents
+     * @throws ObjectAlreadyExistsException with first trigger that already exists
+     */
+    public void insert(List<Document> triggers, List<? extends Trigger> offendingTriggers)
+            throws ObjectAlreadyExistsException {
+        if (triggers.isEmpty()) {
+            return;
+        }
+        try {
+            triggerCollection.insertMany(triggers, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    throw e;
+                }
+            }
+            throw new ObjectAlreadyExistsException(offendingTriggers.get(e.getWriteErrors().get(0).getIndex()));
+        }
+    }
+
     public void remove(Bson filter) {
         triggerCollection.deleteMany(filter);
     }
@@ -146,18 +397,168 @@ public class TriggerDao {
         triggerCollection.deleteMany(Filters.eq(Constants.TRIGGER_JOB_ID, id));
     }
 
-    public void replace(TriggerKey triggerKey, Document trigger) {
-        triggerCollection.replaceOne(toFilter(triggerKey), trigger);
+    public void removeByJobIds(Collection<?> jobIds) {
+        if (!jobIds.isEmpty()) {
+            triggerCollection.deleteMany(Filters.in(Constants.TRIGGER_JOB_ID, jobIds));
+        }
+    }
+
+    public void removeByIds(Collection<?> ids) {
+        if (!ids.isEmpty()) {
+            triggerCollection.deleteMany(Filters.in("_id", ids));
+        }
+    }
+
+    /**
+     * Replace existing trigger. Trigger acquired with an embedded lock
+     * keeps its state and lock, so it's not released to other schedulers
+     * while it fires.
+     *
+     * @param triggerKey    key of trigger to replace
+     * @param trigger       new trigger document
+     * @throws JobPersistenceException when trigger's state keeps changing
+     *                                 between reading and replacing it
+     */
+    public void replace(TriggerKey triggerKey, Document trigger) throws JobPersistenceException {
+        Bson filter = toFilter(triggerKey);
+        for (int attempt = 0; attempt < MAX_REPLACE_ATTEMPTS; attempt++) {
+            if (triggerCollection.replaceOne(Filters.and(filter, NOT_ACQUIRED), trigger).getMatchedCount() == 1) {
+                return;
+            }
+            Document current = triggerCollection.find(filter).projection(STATE_AND_LOCK).first();
+            if (current == null) {
+                return;
+            }
+            if (Constants.STATE_ACQUIRED.equals(current.getString(Constants.TRIGGER_STATE))) {
+                Document locked = new Document(trigger)
+                        .append(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED)
+                        .append(Constants.TRIGGER_LOCK, current.get(Constants.TRIGGER_LOCK));
+                Bson sameLock = Filters.and(filter,
+                        Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED),
+                        Filters.eq(Constants.TRIGGER_LOCK, current.get(Constants.TRIGGER_LOCK)));
+                if (triggerCollection.replaceOne(sameLock, locked).getMatchedCount() == 1) {
+                    return;
+                }
+            }
+            // State has changed meanwhile, try again.
+        }
+        throw new JobPersistenceException("Could not replace trigger " + triggerKey + ", its state keeps changing");
+    }
+
+    /**
+     * Replace triggers, or insert those that don't exist yet,
+     * with a single unordered bulk write. Triggers that are acquired
+     * with embedded locks are replaced one by one, keeping their locks,
+     * see {@link #replace(TriggerKey, Document)}.
+     *
+     * @param triggers    documents of triggers by their keys
+     * @throws JobPersistenceException when state of an acquired trigger
+     *                                 keeps changing while replacing it
+     */
+    public void replace(Map<TriggerKey, Document> triggers) throws JobPersistenceException {
+        if (triggers.isEmpty()) {
+            return;
+        }
+        Set<TriggerKey> acquired = new LinkedHashSet<TriggerKey>();
+        for (Document doc : triggerCollection
+                .find(Filters.and(createAnyOfKeysFilter(triggers.keySet()),
+                        Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED)))
+                .projection(Keys.KEY_AND_GROUP_FIELDS)) {
+            acquired.add(Keys.toTriggerKey(doc));
+        }
+
+        List<TriggerKey> keys = new ArrayList<TriggerKey>(triggers.size());
+        List<ReplaceOneModel<Document>> replacements = new ArrayList<ReplaceOneModel<Document>>(triggers.size());
+        for (Map.Entry<TriggerKey, Document> entry : triggers.entrySet()) {
+            if (!acquired.contains(entry.getKey())) {
+                keys.add(entry.getKey());
+                replacements.add(new ReplaceOneModel<Document>(
+                        Filters.and(toFilter(entry.getKey()), NOT_ACQUIRED),
+                        entry.getValue(), new UpdateOptions().upsert(true)));
+            }
+        }
+        try {
+            if (!replacements.isEmpty()) {
+                triggerCollection.bulkWrite(replacements, new BulkWriteOptions().ordered(false));
+            }
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    throw e;
+                }
+                // Acquired meanwhile, so it has not matched and its upsert clashed with it.
+                acquired.add(keys.get(error.getIndex()));
+            }
+        }
+        for (TriggerKey key : acquired) {
+            replace(key, triggers.get(key));
+        }
+    }
+
+    public void update(TriggerKey triggerKey, Document fields) {
+        triggerCollection.updateOne(toFilter(triggerKey), new Document("$set", fields));
+    }
+
+    /**
+     * Set given fields in triggers with a single bulk write.
+     *
+     * @param fieldsByKey    fields to set by trigger key
+     */
+    public void update(Map<TriggerKey, Document> fieldsByKey) {
+        if (fieldsByKey.isEmpty()) {
+            return;
+        }
+        List<UpdateOneModel<Document>> updates = new ArrayList<UpdateOneModel<Document>>(fieldsByKey.size());
+        for (Map.Entry<TriggerKey, Document> entry : fieldsByKey.entrySet()) {
+            updates.add(new UpdateOneModel<Document>(
+                    toFilter(entry.getKey()),
+                    new Document("$set", entry.getValue())));
+        }
+        triggerCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
     }
 
+    /**
+     * Store job keys in given triggers.
+     *
+     * @param jobKeys    job keys by trigger id
+     */
+    public void setJobKeys(Map<Object, JobKey> jobKeys) {
+        if (jobKeys.isEmpty()) {
+            return;
+        }
+        List<UpdateOneModel<Document>> updates = new ArrayList<UpdateOneModel<Document>>(jobKeys.size());
+        for (Map.Entry<Object, JobKey> entry : jobKeys.entrySet()) {
+            updates.add(new UpdateOneModel<Document>(
+                    Filters.eq("_id", entry.getKey()),
+                    new Document("$set", new Document()
+                            .append(Constants.TRIGGER_JOB_NAME, entry.getValue().getName())
+                            .append(Constants.TRIGGER_JOB_GROUP, entry.getValue().getGroup()))));
+        }
+        triggerCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+    }
+
+    /**
+     * Set the state of the trigger. Trigger acquired with an embedded lock
+     * can be paused, but it's not made waiting until its scheduler releases it.
+     */
     public void setState(TriggerKey triggerKey, String state) {
         triggerCollection.updateOne(
-                Keys.toFilter(triggerKey),
+                unlessReleasingLock(Keys.toFilter(triggerKey), state),
                 createTriggerStateUpdateDocument(state));
     }
 
+    /**
+     * Set the state of all triggers, writing only those in another state.
+     */
     public void setStateInAll(String state) {
-        setStates(new Document(), state);
+        setStates(Filters.ne(Constants.TRIGGER_STATE, state), state);
+    }
+
+    /**
+     * Set the state of all triggers that are in given state.
+     */
+    public void setStateInAll(String fromState, String state) {
+        setStates(Filters.eq(Constants.TRIGGER_STATE, fromState), state);
     }
 
     public void setStateByJobId(ObjectId jobId, String state) {
@@ -172,39 +573,97 @@ public class TriggerDao {
         setStates(matcher, state);
     }
 
-    private Bson createNextTriggerQuery(Date noLaterThanDate) {
-        return Filters.and(
-                Filters.or(
-                        Filters.eq(Constants.TRIGGER_NEXT_FIRE_TIME, null),
-                        Filters.lte(Constants.TRIGGER_NEXT_FIRE_TIME, noLaterThanDate)
-                ),
-                Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_WAITING));
+    /**
+     * Each branch of the '$or' carries the state equality on its own, so all
+     * can be answered from {@link #ELIGIBLE_TO_RUN_INDEX} and merged in index order
+     * instead of scanning the collection and sorting in memory.
+     */
+    private Bson createNextTriggerQuery(Date noLaterThanDate, Date misfireTime) {
+        return createNextTriggerQuery(noLaterThanDate, misfireTime, null);
     }
 
-    private Bson createTriggerStateUpdateDocument(String state) {
-        return new Document("$set", new Document(Constants.TRIGGER_STATE, state));
+    private Bson createNextTriggerQuery(Date noLaterThanDate, Date misfireTime, Date notBefore) {
+        Bson waiting = Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_WAITING);
+        List<Bson> branches = new ArrayList<Bson>(3);
+        Bson notEarlier = new BsonDocument();
+        if (notBefore == null) {
+            branches.add(Filters.and(waiting, Filters.eq(Constants.TRIGGER_NEXT_FIRE_TIME, null)));
+        } else {
+            notEarlier = Filters.gte(Constants.TRIGGER_NEXT_FIRE_TIME, notBefore);
+        }
+        if (misfireTime == null) {
+            branches.add(Filters.and(waiting, notEarlier,
+                    Filters.lte(Constants.TRIGGER_NEXT_FIRE_TIME, noLaterThanDate)));
+            return Filters.or(branches);
+        }
+        // Same as JDBC store: misfired triggers are left to the misfire handler,
+        // unless they ignore misfires.
+        branches.add(Filters.and(waiting, notEarlier,
+                Filters.gte(Constants.TRIGGER_NEXT_FIRE_TIME, misfireTime),
+                Filters.lte(Constants.TRIGGER_NEXT_FIRE_TIME, noLaterThanDate)));
+        branches.add(Filters.and(waiting, notEarlier,
+                Filters.lt(Constants.TRIGGER_NEXT_FIRE_TIME, misfireTime),
+                Filters.eq(Constants.TRIGGER_MISFIRE_INSTRUCTION,
+                        Trigger.MISFIRE_INSTRUCTION_IGNORE_MISFIRE_POLICY)));
+        return Filters.or(branches);
+    }
+
+    private Bson createAnyOfKeysFilter(Collection<TriggerKey> keys) {
+        List<Bson> filters = new ArrayList<Bson>(keys.size());
+        for (TriggerKey key : keys) {
+            filters.add(toFilter(key));
+        }
+        return Filters.or(filters);
     }
 
-    private FindIterable<Document> findByJobId(Object jobId) {
-        return triggerCollection.find(Filters.eq(Constants.TRIGGER_JOB_ID, jobId));
+    private Bson createTriggerStateUpdateDocument(String state) {
+        return new Document("$set", new Document(Constants.TRIGGER_STATE, state));
     }
 
-    private Document findTrigger(TriggerKey key) {
-        return findTrigger(toFilter(key));
+    /**
+     * Triggers are read as raw documents and decoded straight
+     * into triggers, see {@link TriggerDecoder}.
+     */
+    private FindIterable<RawBsonDocument> findRaw(Bson filter) {
+        return triggerCollection.find(filter, RawBsonDocument.class);
     }
 
-    private long getCount(Bson query) {
-        return triggerCollection.count(query);
+    private List<OperableTrigger> decode(FindIterable<RawBsonDocument> triggers)
+            throws JobPersistenceException {
+        List<OperableTrigger> decoded = new ArrayList<OperableTrigger>();
+        try {
+            for (RawBsonDocument trigger : triggers) {
+                decoded.add(triggerDecoder.decode(trigger));
+            }
+            return decoded;
+        } catch (BSONException e) {
+            if (e.getCause() instanceof JobPersistenceException) {
+                throw (JobPersistenceException) e.getCause();
+            }
+            throw e;
+        }
     }
 
+    /**
+     * With embedded locks the state of an acquired trigger is its lock.
+     * Pausing it keeps it from other schedulers, but making it waiting
+     * would let them acquire and fire it again while it fires.
+     */
     private void setStates(Bson filter, String state) {
-        triggerCollection.updateMany(filter, createTriggerStateUpdateDocument(state));
+        triggerCollection.updateMany(unlessReleasingLock(filter, state), createTriggerStateUpdateDocument(state));
     }
 
     private void setStates(GroupMatcher<TriggerKey> matcher, String state) {
         triggerCollection.updateMany(
-                queryHelper.matchingKeysConditionFor(matcher),
+                unlessReleasingLock(queryHelper.matchingKeysConditionFor(triggerCollection, matcher), state),
                 createTriggerStateUpdateDocument(state),
                 new UpdateOptions().upsert(false));
     }
+
+    private Bson unlessReleasingLock(Bson filter, String state) {
+        if (Constants.STATE_WAITING.equals(state)) {
+            return Filters.and(filter, NOT_ACQUIRED);
+        }
+        return filter;
+    }
 }
@@ -0,0 +1,160 @@
+package com.novemberain.quartz.mongodb.jobdata;
+
+import com.novemberain.quartz.mongodb.util.SerialUtils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes strings, primitive wrappers, dates and byte arrays in a compact
+ * tagged binary format, which is much smaller and faster to read than
+ * Java serialization of the whole map. Values of other types are
+ * Java serialized one by one, so any {@link Serializable} is supported.
+ */
+public class CompactJobDataCodec implements JobDataCodec {
+
+    public static final byte BINARY_SUBTYPE = (byte) 0x81;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte DATE = 10;
+    private static final byte BYTES = 11;
+    private static final byte SERIALIZED = 12;
+
+    @Override
+    public byte getBinarySubtype() {
+        return BINARY_SUBTYPE;
+    }
+
+    @Override
+    public byte[] encode(Map<String, ?> jobData) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        out.writeInt(jobData.size());
+        for (Map.Entry<String, ?> entry : jobData.entrySet()) {
+            writeBytes(out, entry.getKey().getBytes(UTF_8));
+            writeValue(out, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Map<String, ?> decode(byte[] payload) throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of compact job data: " + version);
+        }
+        int size = in.readInt();
+        Map<String, Object> jobData = new HashMap<String, Object>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String key = new String(readBytes(in), UTF_8);
+            jobData.put(key, readValue(in));
+        }
+        return jobData;
+    }
+
+    private void writeValue(DataOutputStream out, String key, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeBytes(out, ((String) value).getBytes(UTF_8));
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else {
+            out.writeByte(SERIALIZED);
+            writeBytes(out, SerialUtils.serializeValue(key, value));
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(in), UTF_8);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHARACTER:
+                return in.readChar();
+            case DATE:
+                return new Date(in.readLong());
+            case BYTES:
+                return readBytes(in);
+            case SERIALIZED:
+                return SerialUtils.deserializeValue(readBytes(in));
+            default:
+                throw new IOException("Unknown type of compact job data value: " + tag);
+        }
+    }
+
+    private void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
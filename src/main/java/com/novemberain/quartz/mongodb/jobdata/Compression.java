@@ -0,0 +1,88 @@
+package com.novemberain.quartz.mongodb.jobdata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of encoded job data.
+ *
+ * <p>Compressed payload starts with a header: two magic bytes, binary subtype
+ * of the codec that encoded the data and length of uncompressed data.
+ * Compressed job data is stored with {@link #BINARY_SUBTYPE}. Magic bytes
+ * differ from first bytes of built-in codecs' payloads, so compression is
+ * detected by them only when binary subtype has not been kept, i.e. it's
+ * the generic one. Payloads of custom codecs may start with any bytes.</p>
+ */
+public class Compression {
+
+    public static final byte BINARY_SUBTYPE = (byte) 0x8F;
+
+    private static final byte MAGIC_1 = 'Q';
+    private static final byte MAGIC_2 = 'Z';
+    private static final int HEADER_LENGTH = 2 + 1 + 4;
+
+    public static byte[] compress(byte codecSubtype, byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + payload.length / 2);
+            out.write(MAGIC_1);
+            out.write(MAGIC_2);
+            out.write(codecSubtype);
+            out.write(ByteBuffer.allocate(4).putInt(payload.length).array(), 0, 4);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param payload    payload of binary with compression or generic subtype
+     * @return true when payload starts with the header of compressed data
+     */
+    public static boolean isCompressed(byte[] payload) {
+        return payload.length >= HEADER_LENGTH && payload[0] == MAGIC_1 && payload[1] == MAGIC_2;
+    }
+
+    /**
+     * @param compressed    compressed payload
+     * @return subtype of the codec which has encoded the data
+     */
+    public static byte getCodecSubtype(byte[] compressed) {
+        return compressed[2];
+    }
+
+    public static byte[] decompress(byte[] compressed) throws IOException {
+        int length = ByteBuffer.wrap(compressed, 3, 4).getInt();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH);
+            byte[] payload = new byte[length];
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int n = inflater.inflate(payload, inflated, length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != length) {
+                throw new IOException("Compressed job data is truncated");
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IOException("Could not decompress job data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.novemberain.quartz.mongodb.jobdata;
+
+import com.novemberain.quartz.mongodb.util.SerialUtils;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serializes job data with {@link java.io.ObjectOutputStream}, so it may
+ * contain any {@link java.io.Serializable} values.
+ */
+public class JavaSerializationJobDataCodec implements JobDataCodec {
+
+    public static final byte BINARY_SUBTYPE = (byte) 0x80;
+
+    @Override
+    public byte getBinarySubtype() {
+        return BINARY_SUBTYPE;
+    }
+
+    @Override
+    public byte[] encode(Map<String, ?> jobData) throws IOException {
+        return SerialUtils.serializeJobData(jobData);
+    }
+
+    @Override
+    public Map<String, ?> decode(byte[] payload) throws IOException, ClassNotFoundException {
+        return SerialUtils.deserializeJobData(payload);
+    }
+}
@@ -0,0 +1,26 @@
+package com.novemberain.quartz.mongodb.jobdata;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Encodes job data maps into binary payloads, stored as BSON
+ * {@link org.bson.types.Binary Binary} in '{@value com.novemberain.quartz.mongodb.Constants#JOB_DATA}' field.
+ *
+ * <p>Payloads are tagged with codec's binary subtype, so data written with
+ * any known codec can be read after the configured codec is changed.
+ * Implementations need a public no-arg constructor to be configured
+ * by class name, see {@link JobDataCodecs#forName(String, ClassLoader)}.</p>
+ */
+public interface JobDataCodec {
+
+    /**
+     * @return BSON binary subtype identifying payloads of this codec,
+     * one of user defined subtypes from {@code 0x80} to {@code 0xFF}
+     */
+    byte getBinarySubtype();
+
+    byte[] encode(Map<String, ?> jobData) throws IOException;
+
+    Map<String, ?> decode(byte[] payload) throws IOException, ClassNotFoundException;
+}
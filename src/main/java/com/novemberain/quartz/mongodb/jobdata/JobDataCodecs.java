@@ -0,0 +1,48 @@
+package com.novemberain.quartz.mongodb.jobdata;
+
+import org.quartz.SchedulerConfigException;
+
+/**
+ * Resolves job data codecs configured by name.
+ */
+public class JobDataCodecs {
+
+    public static final String JAVA = "java";
+    public static final String COMPACT = "compact";
+
+    private static final JobDataCodec[] BUILT_IN = {
+            new JavaSerializationJobDataCodec(),
+            new CompactJobDataCodec()};
+
+    /**
+     * @return codecs which payloads can always be read
+     */
+    public static JobDataCodec[] builtIn() {
+        return BUILT_IN.clone();
+    }
+
+    /**
+     * Returns codec for given name.
+     *
+     * @param name           '{@value #JAVA}', '{@value #COMPACT}' or
+     *                       class name of a {@link JobDataCodec} implementation
+     * @param classLoader    to load custom codec class
+     * @return codec instance
+     * @throws SchedulerConfigException when codec cannot be instantiated
+     */
+    public static JobDataCodec forName(String name, ClassLoader classLoader) throws SchedulerConfigException {
+        if (JAVA.equals(name)) {
+            return new JavaSerializationJobDataCodec();
+        }
+        if (COMPACT.equals(name)) {
+            return new CompactJobDataCodec();
+        }
+        try {
+            return classLoader.loadClass(name).asSubclass(JobDataCodec.class).newInstance();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new SchedulerConfigException("Unknown job data codec: " + name, e);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new SchedulerConfigException("Could not instantiate job data codec: " + name, e);
+        }
+    }
+}
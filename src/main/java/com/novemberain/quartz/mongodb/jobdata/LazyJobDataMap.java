@@ -0,0 +1,181 @@
+package com.novemberain.quartz.mongodb.jobdata;
+
+import com.novemberain.quartz.mongodb.JobDataConverter;
+import org.bson.Document;
+import org.quartz.JobDataMap;
+import org.quartz.JobPersistenceException;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Job data map which keeps stored job data as read from database and
+ * decodes it on first access. Until then it can be stored again as it is,
+ * see {@link #getStoredJobData()}.
+ *
+ * <p>Some of inherited {@code put} methods bypass overridable ones, so values
+ * may be put before decoding. They take precedence over decoded values.</p>
+ *
+ * <p>Decoding errors are thrown from the accessing method as
+ * {@link IllegalStateException} caused by {@link JobPersistenceException}.</p>
+ */
+public class LazyJobDataMap extends JobDataMap {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient JobDataConverter jobDataConverter;
+    private transient Document storedJobData;
+    private boolean decoded;
+
+    /**
+     * @param jobDataConverter    converter to decode job data with
+     * @param storedJobData       document with job data fields only
+     */
+    public LazyJobDataMap(JobDataConverter jobDataConverter, Document storedJobData) {
+        this.jobDataConverter = jobDataConverter;
+        this.storedJobData = storedJobData;
+    }
+
+    /**
+     * @return document with stored job data fields, or null when the
+     * map has been decoded, so its contents might have changed
+     */
+    public Document getStoredJobData() {
+        return decoded || !super.isEmpty() ? null : storedJobData;
+    }
+
+    public boolean isDecoded() {
+        return decoded;
+    }
+
+    private void decode() {
+        if (decoded) {
+            return;
+        }
+        JobDataMap stored = new JobDataMap();
+        try {
+            jobDataConverter.toJobData(storedJobData, stored);
+        } catch (JobPersistenceException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        decoded = true;
+        boolean dirty = isDirty();
+        for (Entry<String, Object> entry : stored.entrySet()) {
+            if (!super.containsKey(entry.getKey())) {
+                super.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!dirty) {
+            clearDirtyFlag();
+        }
+        storedJobData = null;
+        jobDataConverter = null;
+    }
+
+    @Override
+    public Map<String, Object> getWrappedMap() {
+        decode();
+        return super.getWrappedMap();
+    }
+
+    @Override
+    public void clear() {
+        decode();
+        super.clear();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        decode();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object val) {
+        decode();
+        return super.containsValue(val);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        decode();
+        return super.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        decode();
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        decode();
+        return super.hashCode();
+    }
+
+    @Override
+    public Object get(Object key) {
+        decode();
+        return super.get(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        decode();
+        return super.isEmpty();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        decode();
+        return super.keySet();
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        decode();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> t) {
+        decode();
+        super.putAll(t);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        decode();
+        return super.remove(key);
+    }
+
+    @Override
+    public int size() {
+        decode();
+        return super.size();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        decode();
+        return super.values();
+    }
+
+    /**
+     * Copies are decoded, so they don't decode the same data again.
+     */
+    @Override
+    public Object clone() {
+        decode();
+        return super.clone();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decode();
+        out.defaultWriteObject();
+    }
+}
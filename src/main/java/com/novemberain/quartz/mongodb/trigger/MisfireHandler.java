@@ -67,6 +67,13 @@ public class MisfireHandler {
         return true;
     }
 
+    /**
+     * @return triggers due to fire before this time have misfired
+     */
+    public Date getMisfireTime() {
+        return new Date(calculateMisfireTime());
+    }
+
     private long calculateMisfireTime() {
         long misfireTime = System.currentTimeMillis();
         if (misfireThreshold > 0) {
@@ -3,9 +3,11 @@ package com.novemberain.quartz.mongodb.trigger;
 import com.novemberain.quartz.mongodb.Constants;
 import com.novemberain.quartz.mongodb.JobDataConverter;
 import com.novemberain.quartz.mongodb.dao.JobDao;
+import com.novemberain.quartz.mongodb.util.Keys;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.quartz.Job;
+import org.quartz.JobDataMap;
 import org.quartz.JobKey;
 import org.quartz.JobPersistenceException;
 import org.quartz.TriggerKey;
@@ -13,26 +15,32 @@ import org.quartz.spi.OperableTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Constructor;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_NAME;
 
 public class TriggerConverter {
 
-    private static final String TRIGGER_CALENDAR_NAME = "calendarName";
-    private static final String TRIGGER_CLASS = "class";
-    private static final String TRIGGER_DESCRIPTION = "description";
-    private static final String TRIGGER_END_TIME = "endTime";
-    private static final String TRIGGER_FINAL_FIRE_TIME = "finalFireTime";
-    private static final String TRIGGER_FIRE_INSTANCE_ID = "fireInstanceId";
-    private static final String TRIGGER_MISFIRE_INSTRUCTION = "misfireInstruction";
-    private static final String TRIGGER_PREVIOUS_FIRE_TIME = "previousFireTime";
-    private static final String TRIGGER_PRIORITY = "priority";
-    private static final String TRIGGER_START_TIME = "startTime";
+    static final String TRIGGER_CALENDAR_NAME = "calendarName";
+    static final String TRIGGER_CLASS = "class";
+    static final String TRIGGER_DESCRIPTION = "description";
+    static final String TRIGGER_END_TIME = "endTime";
+    static final String TRIGGER_FINAL_FIRE_TIME = "finalFireTime";
+    static final String TRIGGER_FIRE_INSTANCE_ID = "fireInstanceId";
+    static final String TRIGGER_PREVIOUS_FIRE_TIME = "previousFireTime";
+    static final String TRIGGER_START_TIME = "startTime";
 
     private static final Logger log = LoggerFactory.getLogger(TriggerConverter.class);
 
     private JobDao jobDao;
     private final JobDataConverter jobDataConverter;
+    // Trigger classes are resolved once per class name stored with triggers
+    private final ConcurrentMap<String, Constructor<? extends OperableTrigger>> triggerConstructors =
+            new ConcurrentHashMap<String, Constructor<? extends OperableTrigger>>();
 
     public TriggerConverter(JobDao jobDao, JobDataConverter jobDataConverter) {
         this.jobDao = jobDao;
@@ -54,6 +62,30 @@ public class TriggerConverter {
         return trigger;
     }
 
+    /**
+     * Converts scheduling state of a trigger, i.e. the fields that change
+     * when it fires or misfires, into document suitable for {@code $set}.
+     * Job data map is left out, so it's not serialized again.
+     *
+     * @param trigger    trigger whose state to convert
+     * @return fire times, start and end times and type specific properties
+     */
+    public Document toSchedulingFields(OperableTrigger trigger) {
+        Document fields = new Document()
+                .append(TRIGGER_END_TIME, trigger.getEndTime())
+                .append(TRIGGER_FINAL_FIRE_TIME, trigger.getFinalFireTime())
+                .append(TRIGGER_FIRE_INSTANCE_ID, trigger.getFireInstanceId())
+                .append(Constants.TRIGGER_NEXT_FIRE_TIME, trigger.getNextFireTime())
+                .append(TRIGGER_PREVIOUS_FIRE_TIME, trigger.getPreviousFireTime())
+                .append(TRIGGER_START_TIME, trigger.getStartTime());
+
+        TriggerPropertiesConverter tpd = TriggerPropertiesConverter.getConverterFor(trigger);
+        if (tpd != null) {
+            fields = tpd.injectExtraPropertiesForInsert(trigger, fields);
+        }
+        return fields;
+    }
+
     /**
      * Restore trigger from Mongo Document.
      *
@@ -65,31 +97,99 @@ public class TriggerConverter {
      */
     public OperableTrigger toTrigger(TriggerKey triggerKey, Document triggerDoc)
             throws JobPersistenceException {
-        OperableTrigger trigger = createNewInstance(triggerDoc);
+        JobKey jobKey = readJobKey(triggerDoc);
+        if (jobKey == null) {
+            // Stored before job keys were kept with triggers.
+            jobKey = findJobKey(triggerDoc.get(Constants.TRIGGER_JOB_ID));
+        }
+        return toTrigger(triggerKey, triggerDoc, jobKey);
+    }
+
+    public OperableTrigger toTrigger(Document doc) throws JobPersistenceException {
+        return toTrigger(toTriggerKey(doc), doc);
+    }
+
+    /**
+     * Restore triggers from Mongo Documents.
+     * Job keys missing in legacy documents are looked up with a single query.
+     *
+     * @param triggerDocs documents to read from
+     * @return triggers in the order of documents, except those that have no associated job
+     * @throws JobPersistenceException if could not construct trigger instance
+     * or could not deserialize job data map.
+     */
+    public List<OperableTrigger> toTriggers(Collection<Document> triggerDocs)
+            throws JobPersistenceException {
+        Map<Object, JobKey> legacyJobKeys = findJobKeysOfLegacy(triggerDocs);
+
+        List<OperableTrigger> triggers = new ArrayList<OperableTrigger>(triggerDocs.size());
+        for (Document triggerDoc : triggerDocs) {
+            JobKey jobKey = readJobKey(triggerDoc);
+            if (jobKey == null) {
+                jobKey = legacyJobKeys.get(triggerDoc.get(Constants.TRIGGER_JOB_ID));
+            }
+            OperableTrigger trigger = toTrigger(toTriggerKey(triggerDoc), triggerDoc, jobKey);
+            if (trigger != null) {
+                triggers.add(trigger);
+            }
+        }
+        return triggers;
+    }
+
+    private OperableTrigger toTrigger(TriggerKey triggerKey, Document triggerDoc, JobKey jobKey)
+            throws JobPersistenceException {
+        if (jobKey == null) {
+            // job was deleted
+            return null;
+        }
+
+        OperableTrigger trigger = createNewInstance(triggerDoc.getString(TRIGGER_CLASS));
 
         TriggerPropertiesConverter tpd = TriggerPropertiesConverter.getConverterFor(trigger);
 
         loadCommonProperties(triggerKey, triggerDoc, trigger);
 
-        jobDataConverter.toJobData(triggerDoc, trigger.getJobDataMap());
+        loadJobData(triggerDoc, trigger);
 
         loadStartAndEndTimes(triggerDoc, trigger);
 
         tpd.setExtraPropertiesAfterInstantiation(trigger, triggerDoc);
 
-        Document job = jobDao.getById(triggerDoc.get(Constants.TRIGGER_JOB_ID));
-        if (job != null) {
-            trigger.setJobKey(new JobKey(job.getString(KEY_NAME), job.getString(KEY_GROUP)));
-            return trigger;
-        } else {
-            // job was deleted
+        trigger.setJobKey(jobKey);
+        return trigger;
+    }
+
+    private TriggerKey toTriggerKey(Document doc) {
+        return new TriggerKey(doc.getString(KEY_NAME), doc.getString(KEY_GROUP));
+    }
+
+    private JobKey readJobKey(Document triggerDoc) {
+        String jobName = triggerDoc.getString(Constants.TRIGGER_JOB_NAME);
+        if (jobName == null) {
             return null;
         }
+        return new JobKey(jobName, triggerDoc.getString(Constants.TRIGGER_JOB_GROUP));
     }
 
-    public OperableTrigger toTrigger(Document doc) throws JobPersistenceException {
-        TriggerKey key = new TriggerKey(doc.getString(KEY_NAME), doc.getString(KEY_GROUP));
-        return toTrigger(key, doc);
+    JobKey findJobKey(Object jobId) {
+        Document job = jobDao.getById(jobId, Keys.KEY_AND_GROUP_FIELDS);
+        if (job == null) {
+            return null;
+        }
+        return new JobKey(job.getString(KEY_NAME), job.getString(KEY_GROUP));
+    }
+
+    private Map<Object, JobKey> findJobKeysOfLegacy(Collection<Document> triggerDocs) {
+        Set<Object> jobIds = new HashSet<Object>();
+        for (Document triggerDoc : triggerDocs) {
+            if (!triggerDoc.containsKey(Constants.TRIGGER_JOB_NAME)) {
+                jobIds.add(triggerDoc.get(Constants.TRIGGER_JOB_ID));
+            }
+        }
+        if (jobIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return jobDao.getKeysByIds(jobIds);
     }
 
     private Document convertToBson(OperableTrigger newTrigger, ObjectId jobId) {
@@ -102,23 +202,28 @@ public class TriggerConverter {
         trigger.put(TRIGGER_FINAL_FIRE_TIME, newTrigger.getFinalFireTime());
         trigger.put(TRIGGER_FIRE_INSTANCE_ID, newTrigger.getFireInstanceId());
         trigger.put(Constants.TRIGGER_JOB_ID, jobId);
+        trigger.put(Constants.TRIGGER_JOB_NAME, newTrigger.getJobKey().getName());
+        trigger.put(Constants.TRIGGER_JOB_GROUP, newTrigger.getJobKey().getGroup());
         trigger.put(KEY_NAME, newTrigger.getKey().getName());
         trigger.put(KEY_GROUP, newTrigger.getKey().getGroup());
-        trigger.put(TRIGGER_MISFIRE_INSTRUCTION, newTrigger.getMisfireInstruction());
+        trigger.put(Keys.KEY_GROUP_REVERSED, Keys.reverse(newTrigger.getKey().getGroup()));
+        trigger.put(Constants.TRIGGER_MISFIRE_INSTRUCTION, newTrigger.getMisfireInstruction());
         trigger.put(Constants.TRIGGER_NEXT_FIRE_TIME, newTrigger.getNextFireTime());
         trigger.put(TRIGGER_PREVIOUS_FIRE_TIME, newTrigger.getPreviousFireTime());
-        trigger.put(TRIGGER_PRIORITY, newTrigger.getPriority());
+        trigger.put(Constants.TRIGGER_PRIORITY, newTrigger.getPriority());
         trigger.put(TRIGGER_START_TIME, newTrigger.getStartTime());
         return trigger;
     }
 
-    private OperableTrigger createNewInstance(Document triggerDoc) throws JobPersistenceException {
-        String triggerClassName = triggerDoc.getString(TRIGGER_CLASS);
+    OperableTrigger createNewInstance(String triggerClassName) throws JobPersistenceException {
         try {
-            @SuppressWarnings("unchecked")
-            Class<OperableTrigger> triggerClass = (Class<OperableTrigger>) getTriggerClassLoader()
-                    .loadClass(triggerClassName);
-            return triggerClass.newInstance();
+            Constructor<? extends OperableTrigger> constructor = triggerConstructors.get(triggerClassName);
+            if (constructor == null) {
+                constructor = getTriggerClassLoader().loadClass(triggerClassName)
+                        .asSubclass(OperableTrigger.class).getConstructor();
+                triggerConstructors.put(triggerClassName, constructor);
+            }
+            return constructor.newInstance();
         } catch (ClassNotFoundException e) {
             throw new JobPersistenceException("Could not find trigger class " + triggerClassName);
         } catch (Exception e) {
@@ -135,21 +240,36 @@ public class TriggerConverter {
         trigger.setCalendarName(triggerDoc.getString(TRIGGER_CALENDAR_NAME));
         trigger.setDescription(triggerDoc.getString(TRIGGER_DESCRIPTION));
         trigger.setFireInstanceId(triggerDoc.getString(TRIGGER_FIRE_INSTANCE_ID));
-        trigger.setMisfireInstruction(triggerDoc.getInteger(TRIGGER_MISFIRE_INSTRUCTION));
+        trigger.setMisfireInstruction(triggerDoc.getInteger(Constants.TRIGGER_MISFIRE_INSTRUCTION));
         trigger.setNextFireTime(triggerDoc.getDate(Constants.TRIGGER_NEXT_FIRE_TIME));
         trigger.setPreviousFireTime(triggerDoc.getDate(TRIGGER_PREVIOUS_FIRE_TIME));
-        trigger.setPriority(triggerDoc.getInteger(TRIGGER_PRIORITY));
+        trigger.setPriority(triggerDoc.getInteger(Constants.TRIGGER_PRIORITY));
+    }
+
+    /**
+     * Job data is decoded only when it's accessed, it's not needed
+     * to acquire or to compare fire times.
+     */
+    public void loadJobData(Document triggerDoc, OperableTrigger trigger) {
+        JobDataMap jobData = jobDataConverter.toLazyJobData(triggerDoc);
+        if (jobData != null) {
+            trigger.setJobDataMap(jobData);
+        }
     }
 
     private void loadStartAndEndTimes(Document triggerDoc, OperableTrigger trigger) {
-        loadStartAndEndTime(triggerDoc, trigger);
-        loadStartAndEndTime(triggerDoc, trigger);
+        loadStartAndEndTimes(trigger, triggerDoc.getDate(TRIGGER_START_TIME), triggerDoc.getDate(TRIGGER_END_TIME));
+    }
+
+    void loadStartAndEndTimes(OperableTrigger trigger, Date startTime, Date endTime) {
+        loadStartAndEndTime(trigger, startTime, endTime);
+        loadStartAndEndTime(trigger, startTime, endTime);
     }
 
-    private void loadStartAndEndTime(Document triggerDoc, OperableTrigger trigger) {
+    private void loadStartAndEndTime(OperableTrigger trigger, Date startTime, Date endTime) {
         try {
-            trigger.setStartTime(triggerDoc.getDate(TRIGGER_START_TIME));
-            trigger.setEndTime(triggerDoc.getDate(TRIGGER_END_TIME));
+            trigger.setStartTime(startTime);
+            trigger.setEndTime(endTime);
         } catch (IllegalArgumentException e) {
             //Ignore illegal arg exceptions thrown by triggers doing JIT validation of start and endtime
             log.warn("Trigger had illegal start / end time combination: {}", trigger.getKey(), e);
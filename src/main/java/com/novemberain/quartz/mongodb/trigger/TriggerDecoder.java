@@ -0,0 +1,179 @@
+package com.novemberain.quartz.mongodb.trigger;
+
+import com.novemberain.quartz.mongodb.Constants;
+import org.bson.BSONException;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.quartz.JobKey;
+import org.quartz.JobPersistenceException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.spi.OperableTrigger;
+
+import java.util.Date;
+
+import static com.novemberain.quartz.mongodb.trigger.TriggerConverter.*;
+import static com.novemberain.quartz.mongodb.util.BsonReaders.*;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP_REVERSED;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_NAME;
+
+/**
+ * Decodes triggers straight from BSON, without building a document of
+ * the whole trigger. Common trigger fields are read into the trigger,
+ * lock and state are skipped, only job data and type specific properties
+ * are collected into a small document for their converters.
+ *
+ * <p>Decodes to null when the job of a legacy trigger, stored without
+ * job key, is gone. Triggers with job keys are not checked against jobs,
+ * their jobs are removed together with them. Decoding errors are thrown
+ * as {@link BSONException} caused by {@link JobPersistenceException}.</p>
+ *
+ * <p>It's a decoder only, not registered with collections: triggers are
+ * read as {@link RawBsonDocument}s and decoded with {@link #decode(RawBsonDocument)}.
+ * They're stored as documents by {@link TriggerConverter#toDocument(OperableTrigger,
+ * org.bson.types.ObjectId)}, which needs the id of trigger's job as well.</p>
+ */
+public class TriggerDecoder implements Decoder<OperableTrigger> {
+
+    private final TriggerConverter triggerConverter;
+    private final CodecRegistry registry;
+
+    public TriggerDecoder(TriggerConverter triggerConverter, CodecRegistry registry) {
+        this.triggerConverter = triggerConverter;
+        this.registry = registry;
+    }
+
+    /**
+     * @param trigger    trigger document as read from database
+     * @return decoded trigger or null when its job is gone
+     */
+    public OperableTrigger decode(RawBsonDocument trigger) {
+        BsonBinaryReader reader = new BsonBinaryReader(trigger.getByteBuffer().asNIO());
+        try {
+            return decode(reader, DecoderContext.builder().build());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public OperableTrigger decode(BsonReader reader, DecoderContext decoderContext) {
+        String triggerClass = null;
+        String name = null;
+        String group = null;
+        String jobName = null;
+        String jobGroup = null;
+        Object jobId = null;
+        String calendarName = null;
+        String description = null;
+        String fireInstanceId = null;
+        Integer misfireInstruction = null;
+        Integer priority = null;
+        Date nextFireTime = null;
+        Date previousFireTime = null;
+        Date startTime = null;
+        Date endTime = null;
+        Document properties = new Document();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String field = reader.readName();
+            switch (field) {
+                case TRIGGER_CLASS:
+                    triggerClass = readString(reader);
+                    break;
+                case KEY_NAME:
+                    name = readString(reader);
+                    break;
+                case KEY_GROUP:
+                    group = readString(reader);
+                    break;
+                case Constants.TRIGGER_JOB_NAME:
+                    jobName = readString(reader);
+                    break;
+                case Constants.TRIGGER_JOB_GROUP:
+                    jobGroup = readString(reader);
+                    break;
+                case Constants.TRIGGER_JOB_ID:
+                    jobId = readValue(reader, decoderContext, registry);
+                    break;
+                case TRIGGER_CALENDAR_NAME:
+                    calendarName = readString(reader);
+                    break;
+                case TRIGGER_DESCRIPTION:
+                    description = readString(reader);
+                    break;
+                case TRIGGER_FIRE_INSTANCE_ID:
+                    fireInstanceId = readString(reader);
+                    break;
+                case Constants.TRIGGER_MISFIRE_INSTRUCTION:
+                    misfireInstruction = readInteger(reader, decoderContext, registry);
+                    break;
+                case Constants.TRIGGER_PRIORITY:
+                    priority = readInteger(reader, decoderContext, registry);
+                    break;
+                case Constants.TRIGGER_NEXT_FIRE_TIME:
+                    nextFireTime = readDate(reader);
+                    break;
+                case TRIGGER_PREVIOUS_FIRE_TIME:
+                    previousFireTime = readDate(reader);
+                    break;
+                case TRIGGER_START_TIME:
+                    startTime = readDate(reader);
+                    break;
+                case TRIGGER_END_TIME:
+                    endTime = readDate(reader);
+                    break;
+                case "_id":
+                case Constants.TRIGGER_STATE:
+                case Constants.TRIGGER_LOCK:
+                case TRIGGER_FINAL_FIRE_TIME:
+                case KEY_GROUP_REVERSED:
+                    // Not needed to restore the trigger
+                    reader.skipValue();
+                    break;
+                default:
+                    // Job data and type specific properties
+                    properties.put(field, readValue(reader, decoderContext, registry));
+            }
+        }
+        reader.readEndDocument();
+
+        try {
+            JobKey jobKey = jobName != null
+                    ? new JobKey(jobName, jobGroup)
+                    // Stored before job keys were kept with triggers.
+                    : triggerConverter.findJobKey(jobId);
+            if (jobKey == null) {
+                // job was deleted
+                return null;
+            }
+
+            OperableTrigger trigger = triggerConverter.createNewInstance(triggerClass);
+            trigger.setKey(new TriggerKey(name, group));
+            trigger.setJobKey(jobKey);
+            trigger.setCalendarName(calendarName);
+            trigger.setDescription(description);
+            trigger.setFireInstanceId(fireInstanceId);
+            trigger.setMisfireInstruction(misfireInstruction != null
+                    ? misfireInstruction : Trigger.MISFIRE_INSTRUCTION_SMART_POLICY);
+            trigger.setNextFireTime(nextFireTime);
+            trigger.setPreviousFireTime(previousFireTime);
+            trigger.setPriority(priority != null ? priority : Trigger.DEFAULT_PRIORITY);
+            triggerConverter.loadJobData(properties, trigger);
+            triggerConverter.loadStartAndEndTimes(trigger, startTime, endTime);
+            TriggerPropertiesConverter.getConverterFor(trigger)
+                    .setExtraPropertiesAfterInstantiation(trigger, properties);
+            return trigger;
+        } catch (JobPersistenceException e) {
+            throw new BSONException("Could not decode trigger " + group + "." + name, e);
+        }
+    }
+}
@@ -7,34 +7,66 @@ import com.novemberain.quartz.mongodb.trigger.properties.SimpleTriggerProperties
 import org.bson.Document;
 import org.quartz.spi.OperableTrigger;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Converts trigger type specific properties.
+ *
+ * <p>Converters of custom {@link OperableTrigger} types are registered
+ * with {@link ServiceLoader}, listing them in
+ * {@code META-INF/services/com.novemberain.quartz.mongodb.trigger.TriggerPropertiesConverter}.
+ * They are asked before built-in converters, so they may handle
+ * subclasses of standard triggers.</p>
  */
 public abstract class TriggerPropertiesConverter {
 
-    private static final List<TriggerPropertiesConverter> propertiesConverters = Arrays.asList(
-            new SimpleTriggerPropertiesConverter(),
-            new CalendarIntervalTriggerPropertiesConverter(),
-            new CronTriggerPropertiesConverter(),
-            new DailyTimeIntervalTriggerPropertiesConverter());
+    private static final List<TriggerPropertiesConverter> propertiesConverters = loadConverters();
+
+    private static final ConcurrentMap<Class<?>, TriggerPropertiesConverter> convertersByClass =
+            new ConcurrentHashMap<Class<?>, TriggerPropertiesConverter>();
 
     /**
      * Returns properties converter for given trigger or null when not found.
+     * Found converter is cached for the trigger class.
      * @param trigger    a trigger instance
      * @return converter or null
      */
     public static TriggerPropertiesConverter getConverterFor(OperableTrigger trigger) {
+        TriggerPropertiesConverter cached = convertersByClass.get(trigger.getClass());
+        if (cached != null) {
+            return cached;
+        }
         for (TriggerPropertiesConverter converter : propertiesConverters) {
             if (converter.canHandle(trigger)) {
+                convertersByClass.putIfAbsent(trigger.getClass(), converter);
                 return converter;
             }
         }
         return null;
     }
 
+    private static List<TriggerPropertiesConverter> loadConverters() {
+        List<TriggerPropertiesConverter> converters = new ArrayList<TriggerPropertiesConverter>();
+        for (TriggerPropertiesConverter converter : ServiceLoader.load(TriggerPropertiesConverter.class)) {
+            converters.add(converter);
+        }
+        converters.addAll(Arrays.asList(
+                new SimpleTriggerPropertiesConverter(),
+                new CalendarIntervalTriggerPropertiesConverter(),
+                new CronTriggerPropertiesConverter(),
+                new DailyTimeIntervalTriggerPropertiesConverter()));
+        return converters;
+    }
+
+    /**
+     * Checks if this converter handles given trigger. Result is cached
+     * for trigger's class, so it may depend only on the class.
+     */
     protected abstract boolean canHandle(OperableTrigger trigger);
 
     public abstract Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original);
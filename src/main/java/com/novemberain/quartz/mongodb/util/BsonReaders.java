@@ -0,0 +1,53 @@
+package com.novemberain.quartz.mongodb.util;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.Date;
+
+/**
+ * Reads values of the current field for decoders of jobs and triggers,
+ * taking null values into account.
+ */
+public class BsonReaders {
+
+    private static final BsonTypeClassMap BSON_TYPE_CLASS_MAP = new BsonTypeClassMap();
+
+    public static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return reader.readString();
+    }
+
+    public static Date readDate(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return new Date(reader.readDateTime());
+    }
+
+    public static Integer readInteger(BsonReader reader, DecoderContext decoderContext,
+                                      CodecRegistry registry) {
+        Object value = readValue(reader, decoderContext, registry);
+        return value != null ? ((Number) value).intValue() : null;
+    }
+
+    /**
+     * Reads a value of any type, as {@link org.bson.Document} would.
+     */
+    public static Object readValue(BsonReader reader, DecoderContext decoderContext,
+                                   CodecRegistry registry) {
+        BsonType type = reader.getCurrentBsonType();
+        if (type == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return registry.get(BSON_TYPE_CLASS_MAP.get(type)).decode(reader, decoderContext);
+    }
+}
@@ -0,0 +1,26 @@
+package com.novemberain.quartz.mongodb.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates named daemon threads for background tasks of the store,
+ * so they're easy to spot in thread dumps and don't keep JVM running.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final ThreadFactory delegate = Executors.defaultThreadFactory();
+    private final String name;
+
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = delegate.newThread(runnable);
+        thread.setName(name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -35,6 +35,14 @@ public class ExpiryCalculator {
         return isLockExpired(lock, triggerTimeoutMillis) && hasDefunctScheduler(schedulerId);
     }
 
+    /**
+     * @return time before which trigger locks are old enough to be expired,
+     *         if their schedulers are defunct
+     */
+    public Date getTriggerLockTimeoutBoundary() {
+        return new Date(clock.millis() - triggerTimeoutMillis);
+    }
+
     private boolean hasDefunctScheduler(String schedulerId) {
         Scheduler scheduler = schedulerDao.findInstance(schedulerId);
         if (scheduler == null) {
@@ -1,19 +1,27 @@
 package com.novemberain.quartz.mongodb.util;
 
+import com.mongodb.Function;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoIterable;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.quartz.impl.matchers.GroupMatcher;
 
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP_REVERSED;
 
 public class GroupHelper {
+    private static final Bson ID_ONLY = Projections.include("_id");
+    protected static final int ID_BATCH_SIZE = 1000;
+
     protected MongoCollection<Document> collection;
     protected QueryHelper queryHelper;
 
@@ -23,17 +31,46 @@ public class GroupHelper {
     }
 
     public Set<String> groupsThatMatch(GroupMatcher<?> matcher) {
-        Bson filter = queryHelper.matchingKeysConditionFor(matcher);
+        Bson filter = queryHelper.matchingKeysConditionFor(collection, matcher);
         return collection
                 .distinct(KEY_GROUP, String.class)
                 .filter(filter)
                 .into(new HashSet<String>());
     }
 
-    public List<Document> inGroupsThatMatch(GroupMatcher<?> matcher) {
+    /**
+     * Streams ids of documents in groups that match, without reading
+     * the documents themselves. Ids are read in batches while iterating.
+     *
+     * @param matcher    group matcher
+     * @return ids of matching documents, to be iterated to the end
+     */
+    public MongoIterable<ObjectId> idsInGroupsThatMatch(GroupMatcher<?> matcher) {
         return collection
-                .find(Filters.in(KEY_GROUP, groupsThatMatch(matcher)))
-                .into(new LinkedList<Document>());
+                .find(queryHelper.matchingKeysConditionFor(collection, matcher))
+                .projection(ID_ONLY)
+                .batchSize(ID_BATCH_SIZE)
+                .map(new Function<Document, ObjectId>() {
+                    @Override
+                    public ObjectId apply(Document doc) {
+                        return doc.getObjectId("_id");
+                    }
+                });
+    }
+
+    /**
+     * Stores reversed groups, see {@link Keys#KEY_GROUP_REVERSED},
+     * in documents stored by previous versions, a group at a time.
+     */
+    public void addMissingReversedGroups() {
+        Bson missing = Filters.exists(KEY_GROUP_REVERSED, false);
+        List<String> groups = collection.distinct(KEY_GROUP, String.class)
+                .filter(missing)
+                .into(new ArrayList<String>());
+        for (String group : groups) {
+            collection.updateMany(Filters.and(Filters.eq(KEY_GROUP, group), missing),
+                    new Document("$set", new Document(KEY_GROUP_REVERSED, Keys.reverse(group))));
+        }
     }
 
     public Set<String> allGroups() {
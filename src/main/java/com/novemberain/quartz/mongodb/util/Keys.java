@@ -18,6 +18,8 @@ public class Keys {
     public static final String LOCK_TYPE = "type";
     public static final String KEY_NAME = "keyName";
     public static final String KEY_GROUP = "keyGroup";
+    /** Group spelled backwards, so that suffixes of groups can be found by prefix. */
+    public static final String KEY_GROUP_REVERSED = "keyGroupReversed";
 
     public static final Bson KEY_AND_GROUP_FIELDS = Projections.include(KEY_GROUP, KEY_NAME);
 
@@ -66,6 +68,10 @@ public class Keys {
                 Filters.eq(Constants.LOCK_INSTANCE_ID, instanceId));
     }
 
+    public static String reverse(String group) {
+        return new StringBuilder(group).reverse().toString();
+    }
+
     public static JobKey toJobKey(Document dbo) {
         return new JobKey(dbo.getString(KEY_NAME), dbo.getString(KEY_GROUP));
     }
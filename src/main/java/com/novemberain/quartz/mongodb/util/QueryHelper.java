@@ -1,28 +1,71 @@
 package com.novemberain.quartz.mongodb.util;
 
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
 import org.bson.BsonDocument;
+import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.quartz.impl.matchers.GroupMatcher;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
+import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP_REVERSED;
 
+/**
+ * Translates group matchers into conditions that can use indexes
+ * on '{@value Keys#KEY_GROUP}' and '{@value Keys#KEY_GROUP_REVERSED}':
+ * prefixes become ranges, suffixes become ranges of reversed groups
+ * and groups containing a value are looked up first and matched with
+ * '$in'. Compared values are always taken literally.
+ */
 public class QueryHelper {
 
-    public Bson matchingKeysConditionFor(GroupMatcher<?> matcher) {
+    /**
+     * When more groups contain the value, they are matched
+     * with a regular expression instead of '$in'.
+     */
+    static final int MAX_GROUPS_IN_CONDITION = 1000;
+
+    /**
+     * @param collection    collection of jobs or triggers,
+     *                      to find groups containing the compared value
+     * @param matcher       group matcher
+     * @return condition matching keys of given collection
+     */
+    public Bson matchingKeysConditionFor(MongoCollection<Document> collection, GroupMatcher<?> matcher) {
+        final String compareToValue = matcher.getCompareToValue();
+
+        switch (matcher.getCompareWithOperator()) {
+            case ENDS_WITH:
+                return startsWith(KEY_GROUP_REVERSED, Keys.reverse(compareToValue));
+            case CONTAINS:
+                return groupsContaining(collection, compareToValue);
+            default:
+                return matchingKeysConditionFor(matcher, KEY_GROUP);
+        }
+    }
+
+    /**
+     * @param matcher    group matcher
+     * @param field      field holding the group, e.g. group of trigger's job
+     * @return condition matching given field
+     */
+    public Bson matchingKeysConditionFor(GroupMatcher<?> matcher, String field) {
         final String compareToValue = matcher.getCompareToValue();
 
         switch (matcher.getCompareWithOperator()) {
             case EQUALS:
-                return Filters.eq(KEY_GROUP, compareToValue);
+                return Filters.eq(field, compareToValue);
             case STARTS_WITH:
-                return Filters.regex(KEY_GROUP, "^" + compareToValue + ".*");
+                return startsWith(field, compareToValue);
             case ENDS_WITH:
-                return Filters.regex(KEY_GROUP, ".*" + compareToValue + "$");
+                return Filters.regex(field, Pattern.quote(compareToValue) + "$");
             case CONTAINS:
-                return Filters.regex(KEY_GROUP, compareToValue);
+                return Filters.regex(field, Pattern.quote(compareToValue));
         }
 
         return new BsonDocument();
@@ -31,4 +74,35 @@ public class QueryHelper {
     public Bson inGroups(Collection<String> groups) {
         return Filters.in(KEY_GROUP, groups);
     }
+
+    /**
+     * Values starting with the prefix are those between the prefix and
+     * the prefix with its last character incremented.
+     */
+    private Bson startsWith(String field, String prefix) {
+        if (prefix.isEmpty()) {
+            return Filters.gte(field, prefix);
+        }
+        int last = prefix.length() - 1;
+        char next = (char) (prefix.charAt(last) + 1);
+        if (prefix.charAt(last) == Character.MAX_VALUE
+                || Character.isSurrogate(prefix.charAt(last)) || Character.isSurrogate(next)) {
+            return Filters.regex(field, "^" + Pattern.quote(prefix));
+        }
+        return Filters.and(
+                Filters.gte(field, prefix),
+                Filters.lt(field, prefix.substring(0, last) + next));
+    }
+
+    private Bson groupsContaining(MongoCollection<Document> collection, String value) {
+        Bson containing = Filters.regex(KEY_GROUP, Pattern.quote(value));
+        List<String> groups = new ArrayList<String>();
+        for (String group : collection.distinct(KEY_GROUP, String.class).filter(containing)) {
+            if (groups.size() == MAX_GROUPS_IN_CONDITION) {
+                return containing;
+            }
+            groups.add(group);
+        }
+        return inGroups(groups);
+    }
 }
@@ -48,20 +48,42 @@ public class SerialUtils {
     }
 
     public static String serialize(JobDataMap jobDataMap) throws IOException {
+        return Base64.encodeBase64String(serializeJobData(jobDataMap.getWrappedMap()));
+    }
+
+    public static byte[] serializeJobData(Map<String, ?> jobData) throws IOException {
+        try {
+            return stringMapToBytes(jobData);
+        } catch (NotSerializableException e) {
+            throw enhance(jobData, e);
+        }
+    }
+
+    public static Map<String, ?> deserializeJobData(byte[] bytes) throws IOException, ClassNotFoundException {
+        return stringMapFromBytes(bytes);
+    }
+
+    public static byte[] serializeValue(String key, Object value) throws IOException {
         try {
-            byte[] bytes = stringMapToBytes(jobDataMap.getWrappedMap());
-            return Base64.encodeBase64String(bytes);
+            return stringMapToBytes(value);
         } catch (NotSerializableException e) {
-            return rethrowEnhanced(jobDataMap, e);
+            throw new NotSerializableException(String.format(SERIALIZE_MESSAGE_FORMAT, key, e.getMessage()));
         }
     }
 
+    public static Object deserializeValue(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Object value = ois.readObject();
+        ois.close();
+        return value;
+    }
+
     public static Map<String, ?> deserialize(JobDataMap jobDataMap, String clob) throws IOException {
         try {
             byte[] bytes = Base64.decodeBase64(clob);
             return stringMapFromBytes(bytes);
         } catch (NotSerializableException e) {
-            rethrowEnhanced(jobDataMap, e);
+            throw enhance(jobDataMap.getWrappedMap(), e);
         } catch (ClassNotFoundException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -87,10 +109,9 @@ public class SerialUtils {
         return map;
     }
 
-    private static String rethrowEnhanced(JobDataMap jobDataMap, NotSerializableException e)
-            throws NotSerializableException {
-        final String key = getKeyOfNonSerializableStringMapEntry(jobDataMap.getWrappedMap());
-        throw new NotSerializableException(
+    private static NotSerializableException enhance(Map<String, ?> jobData, NotSerializableException e) {
+        final String key = getKeyOfNonSerializableStringMapEntry(jobData);
+        return new NotSerializableException(
                 String.format(SERIALIZE_MESSAGE_FORMAT, key, e.getMessage()));
     }
 
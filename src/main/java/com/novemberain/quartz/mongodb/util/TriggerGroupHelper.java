@@ -2,12 +2,17 @@ package com.novemberain.quartz.mongodb.util;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
+import com.novemberain.quartz.mongodb.Constants;
 import org.bson.Document;
 import org.bson.types.ObjectId;
+import org.quartz.JobKey;
+import org.quartz.impl.matchers.GroupMatcher;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import static com.novemberain.quartz.mongodb.util.Keys.KEY_GROUP;
 
@@ -24,9 +29,45 @@ public class TriggerGroupHelper extends GroupHelper {
             .into(new LinkedList<String>());
   }
 
-  public List<String> groupsForJobIds(Collection<ObjectId> ids) {
-    return collection.distinct(KEY_GROUP, String.class)
+  /**
+   * Finds groups of triggers of given jobs, a batch of job ids at a time,
+   * so ids can be streamed instead of being sent in a single query.
+   *
+   * @param ids    ids of jobs
+   * @return groups of triggers
+   */
+  public Set<String> groupsForJobIds(Iterable<ObjectId> ids) {
+    Set<String> groups = new HashSet<String>();
+    List<ObjectId> batch = new ArrayList<ObjectId>(ID_BATCH_SIZE);
+    for (ObjectId id : ids) {
+      batch.add(id);
+      if (batch.size() == ID_BATCH_SIZE) {
+        addGroupsForJobIds(batch, groups);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      addGroupsForJobIds(batch, groups);
+    }
+    return groups;
+  }
+
+  private void addGroupsForJobIds(List<ObjectId> ids, Set<String> groups) {
+    collection.distinct(KEY_GROUP, String.class)
             .filter(Filters.in(JOB_ID, ids))
-            .into(new LinkedList<String>());
+            .into(groups);
+  }
+
+  /**
+   * Finds groups of triggers whose jobs are in groups that match,
+   * by job groups kept with triggers, so jobs are not read at all.
+   *
+   * @param matcher    job group matcher
+   * @return groups of triggers
+   */
+  public Set<String> groupsForJobGroupsThatMatch(GroupMatcher<JobKey> matcher) {
+    return collection.distinct(KEY_GROUP, String.class)
+            .filter(queryHelper.matchingKeysConditionFor(matcher, Constants.TRIGGER_JOB_GROUP))
+            .into(new HashSet<String>());
   }
 }
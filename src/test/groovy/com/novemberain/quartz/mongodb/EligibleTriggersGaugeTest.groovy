@@ -0,0 +1,58 @@
+package com.novemberain.quartz.mongodb
+
+import com.mongodb.MongoException
+import com.novemberain.quartz.mongodb.dao.TriggerDao
+import spock.lang.Specification
+
+class EligibleTriggersGaugeTest extends Specification {
+
+    def triggerDao = Mock(TriggerDao)
+    def clock = Clocks.constClock(100)
+    def gauge = new EligibleTriggersGauge(triggerDao, clock, 1000)
+
+    def 'should report not sampled before first run'() {
+        expect:
+        gauge.backlog == EligibleTriggersGauge.NOT_SAMPLED
+        gauge.lastSampleTime == EligibleTriggersGauge.NOT_SAMPLED
+    }
+
+    def 'should sample triggers due to fire'() {
+        when:
+        gauge.run()
+
+        then:
+        1 * triggerDao.countEligibleToRun(new Date(100)) >> 42
+        gauge.backlog == 42
+        gauge.lastSampleTime == 100
+    }
+
+    def 'should keep last sample when counting fails'() {
+        given:
+        triggerDao.countEligibleToRun(_ as Date) >>> [7] >> { throw new MongoException('Count Error!') }
+
+        when:
+        gauge.run()
+        gauge.run()
+
+        then:
+        gauge.backlog == 7
+    }
+
+    def 'should keep sampling after unexpected error'() {
+        given:
+        triggerDao.countEligibleToRun(_ as Date) >>> [7] >> { throw new IllegalStateException('Bug!') } >> 9
+
+        when:
+        gauge.run()
+        gauge.run()
+
+        then:
+        gauge.backlog == 7
+
+        when:
+        gauge.run()
+
+        then:
+        gauge.backlog == 9
+    }
+}
@@ -1,8 +1,15 @@
 package com.novemberain.quartz.mongodb
 
+import com.novemberain.quartz.mongodb.jobdata.CompactJobDataCodec
+import com.novemberain.quartz.mongodb.jobdata.Compression
+import com.novemberain.quartz.mongodb.jobdata.JavaSerializationJobDataCodec
+import com.novemberain.quartz.mongodb.jobdata.JobDataCodec
+import com.novemberain.quartz.mongodb.jobdata.LazyJobDataMap
 import groovy.transform.EqualsAndHashCode
 import groovy.transform.ToString
+import org.apache.commons.codec.binary.Base64
 import org.bson.Document
+import org.bson.types.Binary
 import org.quartz.JobDataMap
 import org.quartz.JobPersistenceException
 import spock.lang.Specification
@@ -11,6 +18,7 @@ class JobDataConverterTest extends Specification {
 
     def converterBase64 = new JobDataConverter(true)
     def converterPlain = new JobDataConverter(false)
+    def converterCompact = new JobDataConverter(new CompactJobDataCodec())
 
     def "empty job data doesn't modify the document"() {
         given:
@@ -44,7 +52,7 @@ class JobDataConverterTest extends Specification {
         jobDataMap.size() == 0
     }
 
-    def "base64 encode works"() {
+    def "java serialization encodes to binary"() {
         given:
         def jobDataMap = createJobDataWithSerializableContent()
         def doc = new Document()
@@ -52,7 +60,54 @@ class JobDataConverterTest extends Specification {
         converterBase64.toDocument(jobDataMap, doc)
         then:
         doc.size() == 1
-        doc.get(Constants.JOB_DATA) == base64
+        def binary = doc.get(Constants.JOB_DATA) as Binary
+        binary.type == JavaSerializationJobDataCodec.BINARY_SUBTYPE
+        binary.data == Base64.decodeBase64(base64)
+        when:
+        def decoded = new JobDataMap()
+        converterBase64.toJobData(doc, decoded)
+        then:
+        decoded.getWrappedMap() == jobDataMap.getWrappedMap()
+    }
+
+    def "compact codec round trip works"() {
+        given:
+        def jobDataMap = new JobDataMap([str: 'zażółć', int: 1, long: 2L, double: 3.5d, float: 4.5f,
+                                         bool: true, short: (short) 5, byte: (byte) 6, char: ('c' as char),
+                                         date: new Date(7), bytes: [1, 2] as byte[], none: null,
+                                         foo: new Foo(bar: new Bar(str: 'abc'), str: 'def')])
+        def doc = new Document()
+        when:
+        converterCompact.toDocument(jobDataMap, doc)
+        def decoded = new JobDataMap()
+        converterCompact.toJobData(doc, decoded)
+        then:
+        (doc.get(Constants.JOB_DATA) as Binary).type == CompactJobDataCodec.BINARY_SUBTYPE
+        decoded.getWrappedMap().keySet() == jobDataMap.getWrappedMap().keySet()
+        decoded.getWrappedMap().findAll { it.key != 'bytes' } == jobDataMap.getWrappedMap().findAll { it.key != 'bytes' }
+        decoded.get('bytes') == [1, 2] as byte[]
+    }
+
+    def "compact codec fails on non serializable value"() {
+        given:
+        def doc = new Document()
+        when:
+        converterCompact.toDocument(new JobDataMap([bad: new Object()]), doc)
+        then:
+        def e = thrown(JobPersistenceException)
+        e.cause.message.contains("'bad'")
+    }
+
+    def "binary of any built-in codec is decoded"() {
+        given:
+        def doc = new Document()
+        converterCompact.toDocument(createJobDataWithSerializableContent(), doc)
+        def jobDataMap = new JobDataMap()
+        when:
+        def result = converterBase64.toJobData(doc, jobDataMap)
+        then:
+        result
+        jobDataMap.getWrappedMap() == createJobDataWithSerializableContent().getWrappedMap()
     }
 
     def "base64 decode works"() {
@@ -116,6 +171,128 @@ class JobDataConverterTest extends Specification {
         jobDataMap.getWrappedMap() == createJobDataWithSerializableContent().getWrappedMap()
     }
 
+    def "large job data is compressed"() {
+        given:
+        def converter = new JobDataConverter(new CompactJobDataCodec(), 1000)
+        def jobDataMap = new JobDataMap([big: 'x' * 100000, small: 1])
+        def doc = new Document()
+        when:
+        converter.toDocument(jobDataMap, doc)
+        def binary = doc.get(Constants.JOB_DATA) as Binary
+        then:
+        binary.type == Compression.BINARY_SUBTYPE
+        binary.data.length < 1000
+        when: 'subtype is lost, read by any converter'
+        def decoded = new JobDataMap()
+        converterBase64.toJobData(new Document(Constants.JOB_DATA, new Binary(binary.data)), decoded)
+        then:
+        decoded.getWrappedMap() == jobDataMap.getWrappedMap()
+    }
+
+    def "custom codec payload starting like compressed data is not decompressed"() {
+        given:
+        def converter = new JobDataConverter(new QzCodec(), 0)
+        def doc = new Document()
+        when:
+        converter.toDocument(new JobDataMap([name: 'value']), doc)
+        def decoded = new JobDataMap()
+        converter.toJobData(doc, decoded)
+        then:
+        new String((doc.get(Constants.JOB_DATA) as Binary).data, 'UTF-8').startsWith('QZ')
+        decoded.getWrappedMap() == [name: 'value']
+    }
+
+    def "compressed subtype without header fails"() {
+        given:
+        def doc = new Document(Constants.JOB_DATA, new Binary(Compression.BINARY_SUBTYPE, [1, 2, 3] as byte[]))
+        when:
+        converterCompact.toJobData(doc, new JobDataMap())
+        then:
+        thrown(JobPersistenceException)
+    }
+
+    def "small job data is not compressed"() {
+        given:
+        def converter = new JobDataConverter(new CompactJobDataCodec(), 1000)
+        def doc = new Document()
+        when:
+        converter.toDocument(new JobDataMap([small: 1]), doc)
+        then:
+        (doc.get(Constants.JOB_DATA) as Binary).type == CompactJobDataCodec.BINARY_SUBTYPE
+    }
+
+    def "lazy job data is decoded on first access"() {
+        given:
+        def doc = new Document()
+        converterCompact.toDocument(createJobDataWithSerializableContent(), doc)
+        when:
+        def lazy = converterCompact.toLazyJobData(doc) as LazyJobDataMap
+        then:
+        !lazy.isDecoded()
+        when:
+        def foo = lazy.get('foo')
+        then:
+        lazy.isDecoded()
+        foo == createJobDataWithSerializableContent().get('foo')
+        !lazy.isDirty()
+        lazy.getStoredJobData() == null
+    }
+
+    def "undecoded lazy job data is stored unchanged"() {
+        given:
+        def doc = new Document()
+        converterCompact.toDocument(createJobDataWithSerializableContent(), doc)
+        def lazy = converterCompact.toLazyJobData(doc)
+        def stored = new Document()
+        when:
+        converterCompact.toDocument(lazy, stored)
+        then:
+        !(lazy as LazyJobDataMap).isDecoded()
+        stored.get(Constants.JOB_DATA).is(doc.get(Constants.JOB_DATA))
+    }
+
+    def "values put before decoding take precedence"() {
+        given:
+        def doc = new Document()
+        converterBase64.toDocument(createJobDataWithSerializableContent(), doc)
+        def lazy = converterBase64.toLazyJobData(doc)
+        when:
+        lazy.putAsString('str', 456)
+        then:
+        lazy.getString('str') == '456'
+        lazy.get('foo') == createJobDataWithSerializableContent().get('foo')
+        lazy.isDirty()
+    }
+
+    def "lazy job data is decoded when cloned"() {
+        given:
+        def doc = new Document()
+        converterPlain.toDocument(createJobDataWithSimpleContent(), doc)
+        def lazy = converterPlain.toLazyJobData(doc)
+        when:
+        def copy = lazy.clone() as JobDataMap
+        then:
+        (lazy as LazyJobDataMap).isDecoded()
+        copy.getString('foo') == 'foo'
+        copy.size() == 2
+    }
+
+    def "lazy job data reports decoding errors on access"() {
+        given:
+        def lazy = converterBase64.toLazyJobData(new Document(Constants.JOB_DATA, 'a' + base64))
+        when:
+        lazy.size()
+        then:
+        def e = thrown(IllegalStateException)
+        e.cause instanceof JobPersistenceException
+    }
+
+    def "document without job data has no lazy job data"() {
+        expect:
+        converterCompact.toLazyJobData(new Document(Constants.JOB_DATA_PLAIN, [foo: 'bar'])) == null
+        converterPlain.toLazyJobData(new Document('foo', 'bar')) == null
+    }
+
     @ToString
     @EqualsAndHashCode
     static class Foo implements Serializable {
@@ -141,4 +318,25 @@ class JobDataConverterTest extends Specification {
         def map = [foo: 'foo', bar: [one: 1, two: 2.0, list: ['a', 'b', 'c']]]
         new JobDataMap(map)
     }
+
+    /**
+     * Codec whose payloads start with the magic bytes of compressed data.
+     */
+    static class QzCodec implements JobDataCodec {
+
+        @Override
+        byte getBinarySubtype() {
+            (byte) 0x90
+        }
+
+        @Override
+        byte[] encode(Map<String, ?> jobData) {
+            ('QZ' + jobData.collect { k, v -> "$k=$v" }.join('&')).getBytes('UTF-8')
+        }
+
+        @Override
+        Map<String, ?> decode(byte[] payload) {
+            new String(payload, 'UTF-8').substring(2).split('&').collectEntries { it.split('=') as List }
+        }
+    }
 }
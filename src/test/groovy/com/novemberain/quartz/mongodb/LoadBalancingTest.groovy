@@ -46,4 +46,31 @@ class LoadBalancingTest extends Specification {
         QuartzHelper.shutdown(cluster)
         counter.size() == 1
     }
-}
\ No newline at end of file
+
+    def 'should execute the job only once with embedded trigger locks'() {
+        given:
+        counter.clear()
+        def cluster = ['duch', 'rysiek'].collect {
+            def props = QuartzHelper.createClusteredProps(it)
+            props.setProperty('org.quartz.jobStore.embeddedTriggerLocks', 'true')
+            QuartzHelper.createScheduler(props)
+        }
+        def job = JobBuilder.newJob()
+                .ofType(SharedJob)
+                .withIdentity('job1', 'g1')
+                .build()
+        def trigger = TriggerBuilder.newTrigger()
+                .startAt(new Date(System.currentTimeMillis() + 1000l))
+                .withIdentity('t1', 'g1')
+                .build()
+
+        when:
+        cluster.first().scheduleJob(job, trigger)
+        Thread.sleep(7000)
+
+        then:
+        QuartzHelper.shutdown(cluster)
+        counter.size() == 1
+        MongoHelper.getCount('locks') == 0
+    }
+}
@@ -0,0 +1,136 @@
+package com.novemberain.quartz.mongodb
+
+import com.mongodb.client.FindIterable
+import com.novemberain.quartz.mongodb.cluster.TriggerRecoverer
+import com.novemberain.quartz.mongodb.dao.TriggerDao
+import com.novemberain.quartz.mongodb.trigger.MisfireHandler
+import com.novemberain.quartz.mongodb.trigger.TriggerConverter
+import org.bson.Document
+import org.bson.types.ObjectId
+import org.quartz.TriggerKey
+import org.quartz.spi.OperableTrigger
+import org.quartz.spi.SchedulerSignaler
+import spock.lang.Specification
+
+class MisfireScannerTest extends Specification {
+
+    def triggerDao = Mock(TriggerDao)
+    def triggerConverter = Mock(TriggerConverter)
+    def persister = Mock(TriggerAndJobPersister)
+    def lockManager = Mock(LockManager)
+    def misfireHandler = Mock(MisfireHandler)
+    def recoverer = Mock(TriggerRecoverer)
+    def signaler = Mock(SchedulerSignaler)
+    def jobId = new ObjectId()
+    def misfireTime = new Date(100)
+
+    def scanner = new MisfireScanner(triggerDao, triggerConverter, persister, lockManager,
+            misfireHandler, recoverer, signaler, 1000, 3)
+
+    def 'should not be running before start'() {
+        expect:
+        !scanner.running
+    }
+
+    def 'should reschedule locked triggers with one bulk update'() {
+        given:
+        def docs = ['t1', 't2', 't3'].collect { doc(it) }
+        def triggers = ['t1', 't2', 't3'].collect { trigger(it) }
+        misfireHandler.misfireTime >> misfireTime
+        triggerDao.findMisfired(_, misfireTime, 3) >>> [iterable(docs), iterable([])]
+        triggerConverter.toTriggers(docs) >> triggers
+        lockManager.tryLock([key('t1'), key('t2'), key('t3')]) >> ([key('t1'), key('t3')] as Set)
+        misfireHandler.applyMisfire(_) >> true
+        persister.removeTriggerWithoutNextFireTime(_) >> false
+
+        when:
+        scanner.run()
+
+        then:
+        1 * persister.updateLockedTriggers([triggers[0], triggers[2]])
+        1 * lockManager.unlockAcquiredTrigger(triggers[0])
+        1 * lockManager.unlockAcquiredTrigger(triggers[2])
+        0 * lockManager.unlockAcquiredTrigger(triggers[1])
+        1 * signaler.signalSchedulingChange(0L)
+    }
+
+    def 'should recover triggers locked by defunct schedulers'() {
+        given:
+        def docs = [doc('t1')]
+        def triggers = [trigger('t1')]
+        misfireHandler.misfireTime >> misfireTime
+        triggerDao.findMisfired(_, misfireTime, 3) >> iterable(docs)
+        triggerConverter.toTriggers(docs) >> triggers
+        lockManager.tryLock([key('t1')]) >> ([] as Set)
+
+        when:
+        scanner.run()
+
+        then:
+        1 * lockManager.relockExpired(key('t1')) >> true
+        1 * triggerDao.loadJobData([triggers[0]])
+
+        then:
+        1 * recoverer.doRecovery(triggers[0])
+        1 * lockManager.unlockAcquiredTrigger(triggers[0])
+        0 * misfireHandler.applyMisfire(_)
+        1 * signaler.signalSchedulingChange(0L)
+    }
+
+    def 'should remove triggers without next fire time'() {
+        given:
+        def docs = [doc('t1')]
+        def triggers = [trigger('t1')]
+        misfireHandler.misfireTime >> misfireTime
+        triggerDao.findMisfired(_, misfireTime, 3) >> iterable(docs)
+        triggerConverter.toTriggers(docs) >> triggers
+        lockManager.tryLock([key('t1')]) >> ([key('t1')] as Set)
+        misfireHandler.applyMisfire(triggers[0]) >> true
+
+        when:
+        scanner.run()
+
+        then:
+        1 * persister.removeTriggerWithoutNextFireTime(triggers[0]) >> true
+        1 * persister.updateLockedTriggers([])
+        1 * lockManager.unlockAcquiredTrigger(triggers[0])
+    }
+
+    def 'should stop scanning when nothing in a full batch changes'() {
+        given:
+        def docs = ['t1', 't2', 't3'].collect { doc(it) }
+        def triggers = ['t1', 't2', 't3'].collect { trigger(it) }
+        misfireHandler.misfireTime >> misfireTime
+        triggerConverter.toTriggers(docs) >> triggers
+        lockManager.tryLock(_) >> ([key('t1'), key('t2'), key('t3')] as Set)
+        misfireHandler.applyMisfire(_) >> false
+
+        when:
+        scanner.run()
+
+        then:
+        1 * triggerDao.findMisfired(_, misfireTime, 3) >> iterable(docs)
+        0 * signaler.signalSchedulingChange(_)
+    }
+
+    def key(String name) {
+        new TriggerKey(name, 'g1')
+    }
+
+    def doc(String name) {
+        new Document([keyName: name, keyGroup: 'g1', jobId: jobId])
+    }
+
+    def trigger(String name) {
+        def k = key(name)
+        Mock(OperableTrigger) {
+            getKey() >> k
+        }
+    }
+
+    def iterable(List<Document> docs) {
+        Mock(FindIterable) {
+            into(_) >> { args -> args[0].addAll(docs); args[0] }
+        }
+    }
+}
@@ -25,6 +25,7 @@ class MongoHelper {
     static Map<String,MongoCollection<Document>> collections = [
             calendars    : testDatabase.getCollection('quartz_calendars'),
             locks        : testDatabase.getCollection('quartz_locks'),
+            migrations   : testDatabase.getCollection('quartz_migrations'),
             jobs         : testDatabase.getCollection('quartz_jobs'),
             jobGroups    : testDatabase.getCollection('quartz_paused_job_groups'),
             schedulers   : testDatabase.getCollection('quartz_schedulers'),
@@ -45,6 +46,7 @@ class MongoHelper {
         clearColl('triggers')
         clearColl('jobs')
         clearColl('locks')
+        clearColl('migrations')
         clearColl('calendars')
         clearColl('schedulers')
         clearColl('triggerGroups')
@@ -0,0 +1,116 @@
+package com.novemberain.quartz.mongodb.calendar
+
+import org.quartz.impl.calendar.AnnualCalendar
+import org.quartz.impl.calendar.BaseCalendar
+import org.quartz.impl.calendar.CronCalendar
+import org.quartz.impl.calendar.DailyCalendar
+import org.quartz.impl.calendar.HolidayCalendar
+import org.quartz.impl.calendar.MonthlyCalendar
+import org.quartz.impl.calendar.WeeklyCalendar
+import spock.lang.Specification
+
+class CalendarConverterTest extends Specification {
+
+    def converter = new CalendarConverter()
+
+    def 'should convert standard calendars'() {
+        when:
+        def doc = converter.toDocument(calendar)
+        def restored = converter.toCalendar(doc)
+
+        then:
+        restored.class == calendar.class
+        restored.description == calendar.description
+        restored.timeZone == calendar.timeZone
+        (0..400).every {
+            def time = start + it * 17 * 60 * 60 * 1000L
+            restored.isTimeIncluded(time) == calendar.isTimeIncluded(time)
+        }
+
+        where:
+        calendar << [holiday(), annual(), monthly(), weekly(), daily(), invertedDaily(), cron()]
+    }
+
+    def 'should convert chain of base calendars'() {
+        given:
+        def weekly = weekly()
+        def holiday = new HolidayCalendar(weekly)
+        holiday.addExcludedDate(new Date(start))
+        def daily = new DailyCalendar(holiday, '08:00', '17:00')
+
+        when:
+        def restored = converter.toCalendar(converter.toDocument(daily))
+
+        then:
+        restored instanceof DailyCalendar
+        restored.baseCalendar instanceof HolidayCalendar
+        restored.baseCalendar.baseCalendar instanceof WeeklyCalendar
+        restored.baseCalendar.baseCalendar.isDayExcluded(java.util.Calendar.MONDAY)
+        (0..400).every {
+            def time = start + it * 17 * 60 * 60 * 1000L
+            restored.isTimeIncluded(time) == daily.isTimeIncluded(time)
+        }
+    }
+
+    def 'should not convert custom calendars'() {
+        expect:
+        converter.toDocument(new CustomCalendar()) == null
+        converter.toDocument(new DailyCalendar(new CustomCalendar(), '08:00', '17:00')) == null
+    }
+
+    static class CustomCalendar extends BaseCalendar {
+    }
+
+    static final long start = Date.parse('yyyy-MM-dd', '2016-03-01').time
+
+    static holiday() {
+        def c = new HolidayCalendar(TimeZone.getTimeZone('Europe/Warsaw'))
+        c.addExcludedDate(new Date(start))
+        c.addExcludedDate(new Date(start + 10 * 24 * 60 * 60 * 1000L))
+        c.description = 'holidays'
+        c
+    }
+
+    static annual() {
+        def c = new AnnualCalendar()
+        def day = java.util.Calendar.instance
+        day.set(java.util.Calendar.MONTH, java.util.Calendar.MARCH)
+        day.set(java.util.Calendar.DAY_OF_MONTH, 3)
+        c.setDayExcluded(day, true)
+        day.set(java.util.Calendar.MONTH, java.util.Calendar.DECEMBER)
+        day.set(java.util.Calendar.DAY_OF_MONTH, 25)
+        c.setDayExcluded(day, true)
+        c
+    }
+
+    static monthly() {
+        def c = new MonthlyCalendar()
+        c.setDayExcluded(1, true)
+        c.setDayExcluded(15, true)
+        c.setDayExcluded(31, true)
+        c
+    }
+
+    static weekly() {
+        def c = new WeeklyCalendar(TimeZone.getTimeZone('UTC'))
+        c.setDayExcluded(java.util.Calendar.SATURDAY, false)
+        c.setDayExcluded(java.util.Calendar.MONDAY, true)
+        c
+    }
+
+    static daily() {
+        def c = new DailyCalendar('10:15:20:500', '18:30')
+        c.timeZone = TimeZone.getTimeZone('America/New_York')
+        c
+    }
+
+    static invertedDaily() {
+        def c = new DailyCalendar('01:00', '23:00')
+        c.invertTimeRange = true
+        c
+    }
+
+    static cron() {
+        new CronCalendar(null, '* * 0-7 ? * MON-FRI', TimeZone.getTimeZone('Asia/Tokyo'))
+    }
+}
@@ -0,0 +1,16 @@
+package com.novemberain.quartz.mongodb.clojure
+
+import clojure.lang.DynamicClassLoader
+import spock.lang.Specification
+
+class DynamicClassLoadHelperTest extends Specification {
+
+    def 'should reuse dynamic class loader'() {
+        given:
+        def helper = new DynamicClassLoadHelper()
+
+        expect:
+        helper.classLoader instanceof DynamicClassLoader
+        helper.classLoader.is(helper.classLoader)
+    }
+}
@@ -1,15 +1,24 @@
 package com.novemberain.quartz.mongodb.dao
 
 import com.novemberain.quartz.mongodb.MongoHelper
+import com.novemberain.quartz.mongodb.calendar.CalendarConverter
+import com.novemberain.quartz.mongodb.util.Clock
+import com.novemberain.quartz.mongodb.util.SerialUtils
+import org.bson.Document
+import org.bson.types.Binary
+import org.quartz.Calendar
+import org.quartz.impl.calendar.BaseCalendar
 import org.quartz.impl.calendar.DailyCalendar
 import spock.lang.Specification
 
+import static com.novemberain.quartz.mongodb.dao.CalendarDao.CALENDAR_DOCUMENT
 import static com.novemberain.quartz.mongodb.dao.CalendarDao.CALENDAR_NAME
 import static com.novemberain.quartz.mongodb.dao.CalendarDao.CALENDAR_SERIALIZED_OBJECT
+import static com.novemberain.quartz.mongodb.dao.CalendarDao.CALENDAR_VERSION
 
 class CalendarDaoTest extends Specification {
 
-    def dao = new CalendarDao(MongoHelper.getCalendarsColl())
+    def dao = new CalendarDao(MongoHelper.getCalendarsColl(), new CalendarConverter(), Clock.SYSTEM_CLOCK, 0)
 
     def setup() {
         dao.createIndex()
@@ -28,7 +37,27 @@ class CalendarDaoTest extends Specification {
         then:
         stored != null
         stored.getString(CALENDAR_NAME) == name
+        stored.get(CALENDAR_DOCUMENT) != null
+
+        and: 'readable by previous versions'
+        SerialUtils.deserialize(stored.get(CALENDAR_SERIALIZED_OBJECT, Binary), Calendar).toString() ==
+                calendar.toString()
+    }
+
+    def 'should serialize custom calendar'() {
+        given:
+        def calendar = new CustomCalendar(new DailyCalendar('10:15', '10:30'))
+
+        when:
+        dao.store('custom', calendar)
+        def stored = MongoHelper.getFirst('calendars')
+        def retrieved = dao.retrieveCalendar('custom')
+
+        then:
         stored.get(CALENDAR_SERIALIZED_OBJECT) != null
+        stored.get(CALENDAR_DOCUMENT) == null
+        retrieved instanceof CustomCalendar
+        retrieved.baseCalendar.toString() == calendar.baseCalendar.toString()
     }
 
     def 'should return null when calendar name is null'() {
@@ -55,4 +84,87 @@ class CalendarDaoTest extends Specification {
         calendar.toString() == stored.toString()
     }
 
-}
\ No newline at end of file
+    def 'should retrieve stored calendars with one query'() {
+        given:
+        def daily = new DailyCalendar('10:15', '10:30')
+        def other = new DailyCalendar('11:15', '11:30')
+        dao.store('daily', daily)
+        dao.store('other', other)
+
+        when:
+        def stored = dao.retrieveCalendars(['daily', 'other', 'missing'])
+
+        then:
+        stored.keySet() == ['daily', 'other'] as Set
+        stored['daily'].toString() == daily.toString()
+        stored['other'].toString() == other.toString()
+    }
+
+    def 'should notice calendar changed by other node'() {
+        given:
+        dao.store('daily', new DailyCalendar('10:15', '10:30'))
+        def first = dao.retrieveCalendar('daily')
+        replaceStored('daily', new DailyCalendar('11:15', '11:30'))
+
+        when:
+        def second = dao.retrieveCalendar('daily')
+
+        then:
+        first.toString() != second.toString()
+        second.toString() == new DailyCalendar('11:15', '11:30').toString()
+    }
+
+    def 'should use cached calendar within max staleness'() {
+        given:
+        def millis = 1000L
+        def clock = [millis: { millis }, now: { new Date(millis) }] as Clock
+        def cachingDao = new CalendarDao(MongoHelper.getCalendarsColl(), new CalendarConverter(), clock, 100)
+        def daily = new DailyCalendar('10:15', '10:30')
+        cachingDao.store('daily', daily)
+        cachingDao.retrieveCalendar('daily')
+        replaceStored('daily', new DailyCalendar('11:15', '11:30'))
+
+        when:
+        millis += 99
+        def cached = cachingDao.retrieveCalendar('daily')
+        millis += 1
+        def checked = cachingDao.retrieveCalendar('daily')
+
+        then:
+        cached.toString() == daily.toString()
+        !cached.is(cachingDao.retrieveCalendar('daily'))
+        checked.toString() == new DailyCalendar('11:15', '11:30').toString()
+    }
+
+    def 'should forget removed calendar'() {
+        given:
+        dao.store('daily', new DailyCalendar('10:15', '10:30'))
+        dao.retrieveCalendar('daily')
+
+        when:
+        MongoHelper.getCalendarsColl().deleteMany(new Document())
+
+        then:
+        dao.retrieveCalendar('daily') == null
+    }
+
+    def 'should store version with calendar'() {
+        when:
+        dao.store('daily', new DailyCalendar('10:15', '10:30'))
+
+        then:
+        MongoHelper.getFirst('calendars').get(CALENDAR_VERSION) != null
+    }
+
+    private void replaceStored(String name, org.quartz.Calendar calendar) {
+        def other = new CalendarDao(MongoHelper.getCalendarsColl(), new CalendarConverter(), Clock.SYSTEM_CLOCK, 0)
+        other.remove(name)
+        other.store(name, calendar)
+    }
+
+    static class CustomCalendar extends BaseCalendar {
+        CustomCalendar(org.quartz.Calendar base) {
+            super(base)
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.novemberain.quartz.mongodb.dao
+
+import com.novemberain.quartz.mongodb.Clocks
+import com.novemberain.quartz.mongodb.MongoHelper
+import com.novemberain.quartz.mongodb.util.Clock
+import com.novemberain.quartz.mongodb.util.QueryHelper
+import org.bson.Document
+import org.quartz.TriggerKey
+import org.quartz.spi.OperableTrigger
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class EmbeddedTriggerLocksDaoTest extends Specification {
+
+    @Shared def instanceId = 'embeddedLocksDaoTestId'
+    def counter = new AtomicInteger(0)
+    def testClock = Clocks.incClock(counter)
+
+    def setup() {
+        MongoHelper.purgeCollections()
+    }
+
+    def 'should lock waiting trigger'() {
+        given:
+        addTrigger('n1', 'waiting')
+        def dao = createDao()
+
+        when:
+        def locked = dao.lockTrigger(new TriggerKey('n1', 'g1'))
+
+        then:
+        locked
+        assertLock('n1', instanceId, 1)
+    }
+
+    def 'should not lock trigger that is not waiting'() {
+        given:
+        addTrigger('n1', 'paused')
+
+        expect:
+        !createDao().lockTrigger(new TriggerKey('n1', 'g1'))
+        findTrigger('n1').state == 'paused'
+    }
+
+    def 'should not lock trigger locked by other scheduler'() {
+        given:
+        addTrigger('n1', 'waiting')
+        createDao(testClock, 'other').lockTrigger(new TriggerKey('n1', 'g1'))
+
+        expect:
+        !createDao().lockTrigger(new TriggerKey('n1', 'g1'))
+        assertLock('n1', 'other', 1)
+    }
+
+    def 'should lock only waiting triggers in batch'() {
+        given:
+        ['n1', 'n2', 'n3'].each { addTrigger(it, 'waiting') }
+        createDao(testClock, 'other').lockTrigger(new TriggerKey('n2', 'g1'))
+
+        when:
+        def locked = createDao().lockTriggers([new TriggerKey('n1', 'g1'),
+                                                new TriggerKey('n2', 'g1'),
+                                                new TriggerKey('n3', 'g1')])
+
+        then:
+        locked == [new TriggerKey('n1', 'g1'), new TriggerKey('n3', 'g1')] as Set
+        assertLock('n1', instanceId, 2)
+        assertLock('n2', 'other', 1)
+        assertLock('n3', instanceId, 2)
+    }
+
+    def 'should find lock of acquired trigger'() {
+        given:
+        addTrigger('n1', 'waiting')
+        addTrigger('n2', 'waiting')
+        def dao = createDao()
+        dao.lockTrigger(new TriggerKey('n1', 'g1'))
+
+        expect:
+        dao.findTriggerLock(new TriggerKey('n1', 'g1')).instanceId == instanceId
+        dao.findTriggerLock(new TriggerKey('n2', 'g1')) == null
+        dao.findOwnTriggersLocks() == [new TriggerKey('n1', 'g1')]
+    }
+
+    def 'should relock trigger iff lock time has not changed'() {
+        given:
+        addTrigger('n1', 'waiting')
+        def key = new TriggerKey('n1', 'g1')
+        createDao(testClock, 'defunct').lockTrigger(key)
+
+        expect:
+        !createDao().relock(key, new Date(0))
+        createDao().relock(key, new Date(1))
+        assertLock('n1', instanceId, 3)
+    }
+
+    def 'should find triggers locked before given time'() {
+        given:
+        addTrigger('n1', 'waiting', 10)
+        addTrigger('n2', 'waiting', 10)
+        addTrigger('n3', 'waiting', 50)
+        def dao = createDao()
+        ['n1', 'n3', 'n2'].each { dao.lockTrigger(new TriggerKey(it, 'g1')) }
+
+        expect: 'n2 locked in time 3, n3 is not due yet'
+        dao.findLockedBefore(new Date(20), new Date(3), 10).collect { it.keyName } == ['n1']
+    }
+
+    def 'should unlock own trigger'() {
+        given:
+        addTrigger('n1', 'waiting')
+        def key = new TriggerKey('n1', 'g1')
+        createDao(testClock, 'other').lockTrigger(key)
+        def trigger = Mock(OperableTrigger) {
+            getKey() >> key
+        }
+
+        when: 'other scheduler tries to unlock it'
+        createDao().unlockTrigger(trigger)
+
+        then:
+        assertLock('n1', 'other', 1)
+
+        when:
+        createDao(testClock, 'other').unlockTrigger(trigger)
+
+        then:
+        findTrigger('n1').state == 'waiting'
+        !findTrigger('n1').containsKey('lock')
+    }
+
+    def 'should release own locks on startup when not clustered'() {
+        given:
+        addTrigger('n1', 'waiting')
+        addTrigger('n2', 'waiting')
+        createDao().lockTrigger(new TriggerKey('n1', 'g1'))
+        createDao(testClock, 'other').lockTrigger(new TriggerKey('n2', 'g1'))
+
+        when:
+        createDao().createIndex(false)
+
+        then:
+        findTrigger('n1').state == 'waiting'
+        findTrigger('n2').state == 'acquired'
+    }
+
+    def createDao() {
+        createDao(testClock, instanceId)
+    }
+
+    def createDao(Clock clock, String id) {
+        new EmbeddedTriggerLocksDao(MongoHelper.collections['triggers'], clock, id)
+    }
+
+    def 'should keep lock of acquired trigger when resumed or replaced'() {
+        given:
+        addTrigger('n1', 'waiting')
+        addTrigger('n2', 'paused')
+        createDao(testClock, 'other').lockTrigger(new TriggerKey('n1', 'g1'))
+        def triggerDao = new TriggerDao(MongoHelper.collections['triggers'], new QueryHelper(), null)
+
+        when:
+        triggerDao.setState(new TriggerKey('n1', 'g1'), 'waiting')
+        triggerDao.setStateInGroups(['g1'], 'waiting')
+
+        then:
+        assertLock('n1', 'other', 1)
+        findTrigger('n2').state == 'waiting'
+
+        when:
+        triggerDao.replace(new TriggerKey('n1', 'g1'), triggerDoc('n1', 20))
+
+        then:
+        assertLock('n1', 'other', 1)
+        findTrigger('n1').nextFireTime.time == 20
+
+        when:
+        triggerDao.replace([(new TriggerKey('n1', 'g1')): triggerDoc('n1', 30),
+                            (new TriggerKey('n3', 'g1')): triggerDoc('n3', 30)])
+
+        then:
+        assertLock('n1', 'other', 1)
+        findTrigger('n1').nextFireTime.time == 30
+        findTrigger('n3').state == 'waiting'
+    }
+
+    def triggerDoc(String name, long nextFireTime) {
+        new Document([keyName: name, keyGroup: 'g1', state: 'waiting', nextFireTime: new Date(nextFireTime)])
+    }
+
+    def addTrigger(String name, String state) {
+        addTrigger(name, state, 10)
+    }
+
+    def addTrigger(String name, String state, long nextFireTime) {
+        MongoHelper.addTrigger([keyName: name, keyGroup: 'g1', state: state,
+                                nextFireTime: new Date(nextFireTime)])
+    }
+
+    def findTrigger(String name) {
+        MongoHelper.getFirst('triggers', [keyName: name])
+    }
+
+    def void assertLock(String name, String instanceId, long time) {
+        def trigger = findTrigger(name)
+        assert trigger.state == 'acquired'
+        assert trigger.lock.instanceId == instanceId
+        assert trigger.lock.time.time == time
+    }
+}
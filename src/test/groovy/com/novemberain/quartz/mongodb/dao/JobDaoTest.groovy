@@ -0,0 +1,154 @@
+package com.novemberain.quartz.mongodb.dao
+
+import com.novemberain.quartz.mongodb.JobConverter
+import com.novemberain.quartz.mongodb.JobDataConverter
+import com.novemberain.quartz.mongodb.MongoHelper
+import com.novemberain.quartz.mongodb.util.QueryHelper
+import org.quartz.Job
+import org.bson.Document
+import org.quartz.JobBuilder
+import org.quartz.JobExecutionContext
+import org.quartz.JobKey
+import org.quartz.JobPersistenceException
+import org.quartz.simpl.CascadingClassLoadHelper
+import spock.lang.Specification
+
+class JobDaoTest extends Specification {
+
+    def dao = new JobDao(MongoHelper.collections['jobs'], new QueryHelper(),
+            new JobConverter(new CascadingClassLoadHelper(), new JobDataConverter(true)))
+
+    def setup() {
+        MongoHelper.purgeCollections()
+        dao.createIndex()
+    }
+
+    def 'should insert new job and return its id'() {
+        when:
+        def id = dao.storeJobInMongo(createJob('original'), false)
+
+        then:
+        id != null
+        MongoHelper.getCount('jobs') == 1
+        MongoHelper.getFirst('jobs', [keyName: 'j1'])._id == id
+    }
+
+    def 'should keep existing job when not replacing'() {
+        given:
+        def id = dao.storeJobInMongo(createJob('original'), false)
+
+        when:
+        def storedId = dao.storeJobInMongo(createJob('changed'), false)
+
+        then:
+        storedId == id
+        MongoHelper.getCount('jobs') == 1
+        MongoHelper.getFirst('jobs', [keyName: 'j1']).jobDescription == 'original'
+    }
+
+    def 'should replace existing job keeping its id'() {
+        given:
+        def id = dao.storeJobInMongo(createJob('original'), false)
+
+        when:
+        def storedId = dao.storeJobInMongo(createJob('changed'), true)
+
+        then:
+        storedId == id
+        MongoHelper.getCount('jobs') == 1
+        MongoHelper.getFirst('jobs', [keyName: 'j1']).jobDescription == 'changed'
+    }
+
+    def 'should use cached job while its revision is the same'() {
+        given:
+        def cachingDao = createCachingDao()
+        cachingDao.storeJobInMongo(createJob('original'), false)
+        def key = new JobKey('j1', 'g1')
+        def first = cachingDao.retrieveJob(key)
+        first.jobDataMap.put('changed', true)
+        def collection = MongoHelper.collections['jobs']
+        collection.updateOne(new Document('keyName', 'j1'), new Document('\$set', [jobDescription: 'other']))
+
+        when:
+        def cached = cachingDao.retrieveJob(key)
+        collection.updateOne(new Document('keyName', 'j1'),
+                new Document('\$set', [revision: new org.bson.types.ObjectId()]))
+        def reloaded = cachingDao.retrieveJob(key)
+
+        then:
+        cached.description == 'original'
+        !cached.jobDataMap.containsKey('changed')
+        reloaded.description == 'other'
+    }
+
+    def 'should forget removed job'() {
+        given:
+        def cachingDao = createCachingDao()
+        cachingDao.storeJobInMongo(createJob('original'), false)
+        def key = new JobKey('j1', 'g1')
+        cachingDao.retrieveJob(key)
+
+        when:
+        MongoHelper.collections['jobs'].deleteMany(new Document())
+
+        then:
+        cachingDao.retrieveJob(key) == null
+        cachingDao.retrieveJobs([key]).isEmpty()
+    }
+
+    def 'should read replaced job'() {
+        given:
+        def cachingDao = createCachingDao()
+        cachingDao.storeJobInMongo(createJob('original'), false)
+        def key = new JobKey('j1', 'g1')
+        cachingDao.retrieveJob(key)
+
+        when:
+        dao.storeJobInMongo(createJob('changed'), true)
+
+        then:
+        cachingDao.retrieveJob(key).description == 'changed'
+    }
+
+    def 'should decode job with legacy job data in root fields'() {
+        given:
+        MongoHelper.addJob([keyName: 'j1', keyGroup: 'g1', jobClass: NoOpJob.name,
+                            jobDescription: 'legacy', durability: 'true', requestsRecovery: true,
+                            name: 'value', count: 3])
+
+        when:
+        def job = dao.retrieveJob(new JobKey('j1', 'g1'))
+
+        then:
+        job.description == 'legacy'
+        job.durable
+        job.requestsRecovery()
+        job.jobDataMap.getWrappedMap() == [name: 'value', count: 3]
+    }
+
+    def 'should fail to decode job with illegal durability'() {
+        given:
+        MongoHelper.addJob([keyName: 'j1', keyGroup: 'g1', jobClass: NoOpJob.name, durability: 1])
+
+        when:
+        dao.retrieveJob(new JobKey('j1', 'g1'))
+
+        then:
+        thrown(JobPersistenceException)
+    }
+
+    def createCachingDao() {
+        new JobDao(MongoHelper.collections['jobs'], new QueryHelper(),
+                new JobConverter(new CascadingClassLoadHelper(), new JobDataConverter(true)), 10)
+    }
+
+    def createJob(String description) {
+        JobBuilder.newJob(NoOpJob).withIdentity('j1', 'g1').withDescription(description).build()
+    }
+
+    static class NoOpJob implements Job {
+        @Override
+        void execute(JobExecutionContext context) {
+        }
+    }
+}
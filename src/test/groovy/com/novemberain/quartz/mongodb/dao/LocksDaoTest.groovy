@@ -68,6 +68,24 @@ class LocksDaoTest extends Specification {
         locks.first().get(Keys.KEY_GROUP) == 'g1'
     }
 
+    def 'should lock only triggers not locked yet'() {
+        given:
+        def dao = createDao()
+        def otherDao = createDao(Clocks.incClock(), 'other scheduler')
+        otherDao.lockTrigger(new TriggerKey('n2', 'g1'))
+
+        when:
+        def locked = dao.lockTriggers([new TriggerKey('n1', 'g1'),
+                                       new TriggerKey('n2', 'g1'),
+                                       new TriggerKey('n3', 'g1')])
+
+        then:
+        locked == [new TriggerKey('n1', 'g1'), new TriggerKey('n3', 'g1')] as Set
+        def locks = MongoHelper.findAll('locks')
+        locks.size() == 3
+        locks.find { it.get(Keys.KEY_NAME) == 'n2' }.get('instanceId') == 'other scheduler'
+    }
+
     def 'should relock trigger when found'() {
         given:
         def counter = new AtomicInteger(0)
@@ -0,0 +1,36 @@
+package com.novemberain.quartz.mongodb.dao
+
+import com.novemberain.quartz.mongodb.MongoHelper
+import spock.lang.Specification
+
+class MigrationsDaoTest extends Specification {
+
+    def dao = new MigrationsDao(MongoHelper.collections['migrations'])
+
+    def setup() {
+        MongoHelper.purgeCollections()
+    }
+
+    def 'should report migration completed by any node'() {
+        given:
+        def otherNode = new MigrationsDao(MongoHelper.collections['migrations'])
+
+        expect:
+        !dao.isCompleted(MigrationsDao.JOB_KEYS_IN_TRIGGERS)
+
+        when:
+        otherNode.complete(MigrationsDao.JOB_KEYS_IN_TRIGGERS)
+
+        then:
+        dao.isCompleted(MigrationsDao.JOB_KEYS_IN_TRIGGERS)
+    }
+
+    def 'should complete migration once'() {
+        when:
+        dao.complete(MigrationsDao.JOB_KEYS_IN_TRIGGERS)
+        dao.complete(MigrationsDao.JOB_KEYS_IN_TRIGGERS)
+
+        then:
+        MongoHelper.getCount('migrations') == 1
+    }
+}
@@ -0,0 +1,83 @@
+package com.novemberain.quartz.mongodb.dao
+
+import com.novemberain.quartz.mongodb.MongoHelper
+import org.bson.Document
+import org.bson.types.ObjectId
+import spock.lang.Specification
+
+class PausedGroupsDaoTest extends Specification {
+
+    // New collection without unique index, to store duplicates
+    def collection = MongoHelper.testDatabase.getCollection("quartz_paused_groups_${new ObjectId()}")
+    def dao = new PausedTriggerGroupsDao(collection)
+
+    def 'should pause groups once'() {
+        given:
+        dao.createIndex()
+
+        when:
+        dao.pauseGroups(['g1', 'g2'])
+        dao.pauseGroups(['g2', 'g3'])
+
+        then:
+        dao.getPausedGroups() == ['g1', 'g2', 'g3'] as Set
+        collection.count(new Document('keyGroup', 'g2')) == 1
+    }
+
+    def 'should refresh cached groups changed by another node'() {
+        given:
+        dao.createIndex()
+        def otherNode = new PausedTriggerGroupsDao(collection)
+        dao.pauseGroups(['g1'])
+
+        expect:
+        otherNode.isPaused('g1')
+
+        when:
+        dao.pauseGroups(['g2'])
+        dao.unpauseGroups(['g1'])
+
+        then:
+        otherNode.getPausedGroups() == ['g2'] as Set
+
+        when:
+        dao.remove()
+
+        then:
+        otherNode.getPausedGroups().isEmpty()
+    }
+
+    def 'should refresh cached groups changed by previous versions'() {
+        given:
+        dao.createIndex()
+        dao.pauseGroups(['g1'])
+
+        expect:
+        dao.getPausedGroups() == ['g1'] as Set
+
+        when: 'paused without version stamp'
+        collection.insertMany([new Document('keyGroup', 'g2')])
+
+        then:
+        dao.getPausedGroups() == ['g1', 'g2'] as Set
+
+        when: 'unpaused without version stamp'
+        collection.deleteMany(new Document('keyGroup', 'g1'))
+
+        then:
+        dao.getPausedGroups() == ['g2'] as Set
+    }
+
+    def 'should remove duplicates stored by previous versions'() {
+        given:
+        collection.insertMany([new Document('keyGroup', 'g1'), new Document('keyGroup', 'g1'),
+                               new Document('keyGroup', 'g2')])
+
+        when:
+        dao.createIndex()
+
+        then:
+        collection.count() == 2
+        dao.getPausedGroups() == ['g1', 'g2'] as Set
+    }
+}
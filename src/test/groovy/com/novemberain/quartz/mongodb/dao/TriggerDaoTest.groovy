@@ -0,0 +1,161 @@
+package com.novemberain.quartz.mongodb.dao
+
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.result.UpdateResult
+import com.novemberain.quartz.mongodb.Constants
+import com.novemberain.quartz.mongodb.JobDataConverter
+import com.novemberain.quartz.mongodb.MongoHelper
+import com.novemberain.quartz.mongodb.trigger.TriggerConverter
+import com.novemberain.quartz.mongodb.util.QueryHelper
+import org.bson.Document
+import org.bson.types.ObjectId
+import org.quartz.JobPersistenceException
+import org.quartz.TriggerBuilder
+import org.quartz.TriggerKey
+import org.quartz.spi.OperableTrigger
+import spock.lang.Specification
+
+class TriggerDaoTest extends Specification {
+
+    def converter = new TriggerConverter(Mock(JobDao), new JobDataConverter(true))
+    def dao = new TriggerDao(MongoHelper.collections['triggers'], new QueryHelper(), converter)
+
+    def setup() {
+        MongoHelper.purgeCollections()
+        dao.createIndex()
+    }
+
+    def 'should find eligible triggers ordered by fire time and priority'() {
+        given:
+        addTrigger('t1', 'waiting', 30, 5)
+        addTrigger('t2', 'waiting', 10, 5)
+        addTrigger('t3', 'waiting', 20, 1)
+        addTrigger('t4', 'waiting', 20, 9)
+        addTrigger('t5', 'paused', 5, 5)
+        addTrigger('t6', 'waiting', 50, 5)
+
+        when:
+        def names = findEligibleNames(new Date(40), null, null, 10)
+
+        then:
+        names == ['t2', 't4', 't3', 't1']
+    }
+
+    def 'should find eligible triggers from the earliest next fire time'() {
+        given:
+        (1..5).each { addTrigger("t$it", 'waiting', it, 5) }
+
+        expect:
+        findEligibleNames(new Date(10), null, null, 2) == ['t1', 't2']
+        findEligibleNames(new Date(10), null, new Date(3), 2) == ['t3', 't4']
+        findEligibleNames(new Date(10), null, new Date(5), 2) == ['t5']
+    }
+
+    def 'should include waiting triggers without next fire time'() {
+        given:
+        addTrigger('t1', 'waiting', 10, 5)
+        addTrigger('t2', 'waiting', null, 5)
+
+        expect:
+        findEligibleNames(new Date(10), null, null, 10) == ['t2', 't1']
+    }
+
+    def 'should leave out misfired triggers unless they ignore misfires'() {
+        given:
+        addTrigger('t1', 'waiting', 10, 5, 0)
+        addTrigger('t2', 'waiting', 20, 5, -1)
+        addTrigger('t3', 'waiting', 30, 5, 0)
+        addTrigger('t4', 'waiting', null, 5, 0)
+
+        expect:
+        findEligibleNames(new Date(40), new Date(25), null, 10) == ['t4', 't2', 't3']
+    }
+
+    def 'should find misfired triggers, the most overdue first'() {
+        given:
+        addTrigger('t1', 'waiting', 20, 5, 0)
+        addTrigger('t2', 'waiting', 10, 5, 1)
+        addTrigger('t3', 'waiting', 15, 5, -1)
+        addTrigger('t4', 'paused', 10, 5, 0)
+        addTrigger('t5', 'waiting', 30, 5, 0)
+        addTrigger('t6', 'waiting', 5, 5, 0)
+
+        expect:
+        dao.findMisfired(new Date(25), 10).collect { it.keyName } == ['t6', 't2', 't1']
+        dao.findMisfired(new Date(25), 2).collect { it.keyName } == ['t6', 't2']
+    }
+
+    def 'should read job data of eligible triggers only on demand'() {
+        given:
+        addTrigger('t1', 'waiting', 10, 5)
+        addTrigger('t2', 'waiting', 20, 5)
+        MongoHelper.collections['triggers'].updateOne(new Document('keyName', 't1'),
+                new Document('$set', new Document(Constants.JOB_DATA, 'data1')))
+
+        expect:
+        dao.findTriggersEligibleToRun(new Date(30), null, null, 10).every { it.jobDataMap.isEmpty() }
+        dao.findMisfired(new Date(30), 10).every { !it.containsKey(Constants.JOB_DATA) }
+
+        when:
+        def jobData = dao.findJobData([new TriggerKey('t1', 'g1'), new TriggerKey('t2', 'g1')])
+
+        then:
+        jobData.size() == 2
+        jobData.find { it.keyName == 't1' }.get(Constants.JOB_DATA) == 'data1'
+        jobData.find { it.keyName == 't2' }.keySet() == ['_id', 'keyName', 'keyGroup'] as Set
+    }
+
+    def 'should read further eligible triggers from the next fire time reached'() {
+        given:
+        [t1: 10L, t2: 20L, t3: 20L, t4: 30L, t5: null].each { name, nextFireTime ->
+            addTrigger(name, 'waiting', nextFireTime, 5)
+        }
+
+        when:
+        def first = dao.findTriggersEligibleToRun(new Date(40), null, null, 3)
+        // locked by another scheduler meanwhile
+        MongoHelper.collections['triggers'].updateMany(new Document('keyName', 't1'),
+                new Document('$set', new Document('state', 'acquired')))
+        def next = dao.findTriggersEligibleToRun(new Date(40), null, new Date(20), 3)
+
+        then:
+        first.collect { it.key.name } == ['t5', 't1', first[2].key.name]
+        next.collect { it.key.name } as Set == ['t2', 't3', 't4'] as Set
+    }
+
+    def 'should give up replacing trigger whose state keeps changing'() {
+        given:
+        def collection = Mock(MongoCollection)
+        def current = Mock(FindIterable)
+        def triggersDao = new TriggerDao(collection, new QueryHelper(), converter)
+        // Released before each replace, acquired again before each read.
+        collection.replaceOne(_, _) >> UpdateResult.acknowledged(0, 0, null)
+        collection.find(_) >> current
+        current.projection(_) >> current
+        current.first() >> new Document('state', 'acquired').append('lock', new Document('instanceId', 'i1'))
+
+        when:
+        triggersDao.replace(new TriggerKey('t1', 'g1'), new Document('keyName', 't1'))
+
+        then:
+        thrown(JobPersistenceException)
+    }
+
+    def addTrigger(String name, String state, Long nextFireTime, int priority) {
+        addTrigger(name, state, nextFireTime, priority, 0)
+    }
+
+    def addTrigger(String name, String state, Long nextFireTime, int priority, int misfireInstruction) {
+        def trigger = TriggerBuilder.newTrigger().withIdentity(name, 'g1').forJob('j1', 'g1')
+                .withPriority(priority).build() as OperableTrigger
+        trigger.setMisfireInstruction(misfireInstruction)
+        MongoHelper.addTrigger(converter.toDocument(trigger, new ObjectId())
+                .append('state', state)
+                .append('nextFireTime', nextFireTime == null ? null : new Date(nextFireTime)))
+    }
+
+    def findEligibleNames(Date noLaterThanDate, Date misfireTime, Date notBefore, int limit) {
+        dao.findTriggersEligibleToRun(noLaterThanDate, misfireTime, notBefore, limit).collect { it.key.name }
+    }
+}
@@ -0,0 +1,40 @@
+package com.novemberain.quartz.mongodb.trigger
+
+import com.novemberain.quartz.mongodb.trigger.properties.SimpleTriggerPropertiesConverter
+import org.bson.Document
+import org.quartz.impl.triggers.SimpleTriggerImpl
+import org.quartz.spi.OperableTrigger
+
+/**
+ * Custom trigger converter registered in test resources.
+ */
+class TaggedTriggerPropertiesConverter extends TriggerPropertiesConverter {
+
+    def simple = new SimpleTriggerPropertiesConverter()
+
+    @Override
+    protected boolean canHandle(OperableTrigger trigger) {
+        trigger instanceof TaggedTrigger
+    }
+
+    @Override
+    Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original) {
+        simple.injectExtraPropertiesForInsert(trigger, original).append('tag', ((TaggedTrigger) trigger).tag)
+    }
+
+    @Override
+    void setExtraPropertiesAfterInstantiation(OperableTrigger trigger, Document stored) {
+        simple.setExtraPropertiesAfterInstantiation(trigger, stored)
+        ((TaggedTrigger) trigger).tag = stored.getString('tag')
+    }
+
+    static class TaggedTrigger extends SimpleTriggerImpl {
+
+        String tag
+
+        @Override
+        boolean hasAdditionalProperties() {
+            true
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.novemberain.quartz.mongodb.JobDataConverter
 import com.novemberain.quartz.mongodb.dao.JobDao
 import com.novemberain.quartz.mongodb.util.Keys
 import org.bson.Document
+import org.bson.types.ObjectId
+import org.quartz.JobKey
 import org.quartz.impl.triggers.SimpleTriggerImpl
 import spock.lang.Shared
 import spock.lang.Specification
@@ -21,7 +23,7 @@ class TriggerConverterTest extends Specification {
     def 'should return null when job of trigger is gone'() {
         given:
         def doc = createTriggerDoc()
-        1 * jobDao.getById(jobId) >> null
+        1 * jobDao.getById(jobId, _) >> null
 
         expect:
         converter.toTrigger(doc) == null
@@ -32,7 +34,7 @@ class TriggerConverterTest extends Specification {
         def jobDoc = new Document(Keys.KEY_NAME, 'job key')
                 .append(Keys.KEY_GROUP, 'job group')
         def triggerDoc = createTriggerDoc()
-        1 * jobDao.getById(jobId) >> jobDoc
+        1 * jobDao.getById(jobId, _) >> jobDoc
 
         when:
         def trigger = converter.toTrigger(triggerDoc) as SimpleTriggerImpl
@@ -61,6 +63,99 @@ class TriggerConverterTest extends Specification {
         trigger.getJobDataMap().getString('trg param') == 'my message'
     }
 
+    def 'should use job key stored with trigger'() {
+        given:
+        def triggerDoc = createTriggerDoc()
+                .append('jobName', 'job key')
+                .append('jobGroup', 'job group')
+
+        when:
+        def trigger = converter.toTrigger(triggerDoc)
+
+        then:
+        0 * jobDao.getById(*_)
+        trigger.getJobKey() == new JobKey('job key', 'job group')
+    }
+
+    def 'should store job key with trigger'() {
+        given:
+        def trigger = converter.toTrigger(createTriggerDoc()
+                .append('jobName', 'job key')
+                .append('jobGroup', 'job group'))
+
+        when:
+        def doc = converter.toDocument(trigger, new ObjectId(jobId))
+
+        then:
+        doc.getString('jobName') == 'job key'
+        doc.getString('jobGroup') == 'job group'
+    }
+
+    def 'should convert scheduling fields without job data'() {
+        given:
+        def trigger = converter.toTrigger(createTriggerDoc()
+                .append('jobName', 'job key')
+                .append('jobGroup', 'job group'))
+        trigger.triggered(null)
+
+        when:
+        def fields = converter.toSchedulingFields(trigger)
+
+        then:
+        fields.getDate('previousFireTime').time == 2
+        fields.getDate('nextFireTime') == trigger.nextFireTime
+        fields.getInteger('timesTriggered') == 4
+        !fields.containsKey('jobData')
+        !fields.containsKey('state')
+        !fields.containsKey('jobId')
+    }
+
+    def 'should look up job keys of legacy triggers at once'() {
+        given:
+        def otherJobId = '57a6d36dee7825134cf47310'
+        def docs = [createTriggerDoc('t1'),
+                    createTriggerDoc('t2').append('jobName', 'stored').append('jobGroup', 'g'),
+                    createTriggerDoc('t3').append('jobId', otherJobId),
+                    createTriggerDoc('t4').append('jobId', 'gone')]
+
+        when:
+        def triggers = converter.toTriggers(docs)
+
+        then:
+        1 * jobDao.getKeysByIds({ it == [jobId, otherJobId, 'gone'] as Set }) >> [
+                (jobId)     : new JobKey('j1', 'g'),
+                (otherJobId): new JobKey('j3', 'g')]
+        0 * jobDao.getById(*_)
+        triggers*.key*.name == ['t1', 't2', 't3']
+        triggers*.jobKey*.name == ['j1', 'stored', 'j3']
+    }
+
+    def 'should convert custom trigger with registered converter'() {
+        given:
+        def trigger = new TaggedTriggerPropertiesConverter.TaggedTrigger(tag: 'custom',
+                repeatCount: 7, repeatInterval: 100)
+        trigger.key = new org.quartz.TriggerKey('custom')
+        trigger.jobKey = new JobKey('job key', 'job group')
+        trigger.startTime = new Date(10)
+
+        when:
+        def doc = converter.toDocument(trigger, new ObjectId(jobId))
+        def restored = converter.toTrigger(doc.append('_id', new ObjectId()))
+
+        then:
+        doc.getString('tag') == 'custom'
+        restored instanceof TaggedTriggerPropertiesConverter.TaggedTrigger
+        restored.tag == 'custom'
+        restored.repeatCount == 7
+        restored.repeatInterval == 100
+        TriggerPropertiesConverter.getConverterFor(new SimpleTriggerImpl()).class.simpleName ==
+                'SimpleTriggerPropertiesConverter'
+    }
+
+    def createTriggerDoc(String name) {
+        createTriggerDoc().append('keyName', name)
+    }
+
     def createTriggerDoc() {
         new Document()
                 .append('_id', '57a6d36dee7825134cf47309')
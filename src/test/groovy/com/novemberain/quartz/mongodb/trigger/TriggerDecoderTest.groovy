@@ -0,0 +1,104 @@
+package com.novemberain.quartz.mongodb.trigger
+
+import com.mongodb.MongoClient
+import com.novemberain.quartz.mongodb.JobDataConverter
+import com.novemberain.quartz.mongodb.dao.JobDao
+import com.novemberain.quartz.mongodb.util.Keys
+import org.bson.BsonDocument
+import org.bson.BsonDocumentReader
+import org.bson.Document
+import org.bson.codecs.DecoderContext
+import org.bson.types.ObjectId
+import org.quartz.CronScheduleBuilder
+import org.quartz.DailyTimeIntervalScheduleBuilder
+import org.quartz.JobKey
+import org.quartz.SimpleScheduleBuilder
+import org.quartz.TriggerBuilder
+import spock.lang.Specification
+
+class TriggerDecoderTest extends Specification {
+
+    def registry = MongoClient.getDefaultCodecRegistry()
+    def jobDao = Mock(JobDao)
+    def converter = new TriggerConverter(jobDao, new JobDataConverter(true))
+    def decoder = new TriggerDecoder(converter, registry)
+
+    def 'should decode the same trigger as converter'() {
+        given:
+        def trigger = TriggerBuilder.newTrigger()
+                .withIdentity('t1', 'g1')
+                .forJob('j1', 'g1')
+                .withDescription('desc')
+                .modifiedByCalendar('cal')
+                .withPriority(7)
+                .usingJobData('key', 'value')
+                .startAt(new Date(1000))
+                .withSchedule(schedule)
+                .build()
+        trigger.computeFirstFireTime(null)
+        def doc = converter.toDocument(trigger, new ObjectId())
+                .append('_id', new ObjectId())
+                .append('lock', new Document('instanceId', 'node'))
+
+        when:
+        def decoded = decode(doc)
+        def expected = converter.toTrigger(doc)
+
+        then:
+        decoded.class == expected.class
+        decoded.key == expected.key
+        decoded.jobKey == new JobKey('j1', 'g1')
+        decoded.description == 'desc'
+        decoded.calendarName == 'cal'
+        decoded.priority == 7
+        decoded.jobDataMap.getString('key') == 'value'
+        decoded.jobDataMap.size() == 1
+        decoded.startTime == expected.startTime
+        decoded.nextFireTime == expected.nextFireTime
+        decoded.getFireTimeAfter(new Date(5000000)) == expected.getFireTimeAfter(new Date(5000000))
+        0 * jobDao._
+
+        where:
+        schedule << [SimpleScheduleBuilder.repeatMinutelyForTotalCount(5),
+                     CronScheduleBuilder.cronSchedule('0 15 10 ? * MON-FRI'),
+                     DailyTimeIntervalScheduleBuilder.dailyTimeIntervalSchedule().withIntervalInHours(2)]
+    }
+
+    def 'should look up job key of legacy trigger'() {
+        given:
+        def jobId = new ObjectId()
+        def doc = createLegacyDoc(jobId)
+
+        when:
+        def decoded = decode(doc)
+
+        then:
+        1 * jobDao.getById(jobId, _) >> new Document(Keys.KEY_NAME, 'j1').append(Keys.KEY_GROUP, 'g1')
+        decoded.jobKey == new JobKey('j1', 'g1')
+    }
+
+    def 'should decode to null when job is gone'() {
+        given:
+        def jobId = new ObjectId()
+
+        when:
+        def decoded = decode(createLegacyDoc(jobId))
+
+        then:
+        1 * jobDao.getById(jobId, _) >> null
+        decoded == null
+    }
+
+    def createLegacyDoc(ObjectId jobId) {
+        def trigger = TriggerBuilder.newTrigger().withIdentity('t1', 'g1').forJob('j1', 'g1').build()
+        def doc = converter.toDocument(trigger, jobId)
+        doc.remove('jobName')
+        doc.remove('jobGroup')
+        doc
+    }
+
+    def decode(Document doc) {
+        def reader = new BsonDocumentReader(doc.toBsonDocument(BsonDocument, registry))
+        decoder.decode(reader, DecoderContext.builder().build())
+    }
+}
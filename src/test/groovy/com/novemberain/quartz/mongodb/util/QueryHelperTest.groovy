@@ -0,0 +1,61 @@
+package com.novemberain.quartz.mongodb.util
+
+import com.novemberain.quartz.mongodb.MongoHelper
+import org.bson.Document
+import org.quartz.impl.matchers.GroupMatcher
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class QueryHelperTest extends Specification {
+
+    // Prefix range can't end after the last character
+    static final String MAX_CHAR_GROUP = 'a.b' + Character.MAX_VALUE
+
+    def queryHelper = new QueryHelper()
+    def collection = MongoHelper.collections['jobs']
+
+    def setup() {
+        MongoHelper.purgeCollections()
+        ['a.b', 'axb', 'a.b.c', 'c.a.b', '(x)', 'x', MAX_CHAR_GROUP].eachWithIndex { group, i ->
+            collection.insertOne(new Document(Keys.KEY_NAME, "j$i".toString())
+                    .append(Keys.KEY_GROUP, group)
+                    .append(Keys.KEY_GROUP_REVERSED, Keys.reverse(group)))
+        }
+    }
+
+    @Unroll
+    def "should match groups literally with #matcher"() {
+        expect:
+        groupsMatching(matcher) == groups as Set
+
+        where:
+        matcher                                      | groups
+        GroupMatcher.groupEquals('a.b')              | ['a.b']
+        GroupMatcher.groupStartsWith('a.b')          | ['a.b', 'a.b.c', MAX_CHAR_GROUP]
+        GroupMatcher.groupStartsWith('(')            | ['(x)']
+        GroupMatcher.groupStartsWith(MAX_CHAR_GROUP) | [MAX_CHAR_GROUP]
+        GroupMatcher.groupStartsWith('')             | ['a.b', 'axb', 'a.b.c', 'c.a.b', '(x)', 'x', MAX_CHAR_GROUP]
+        GroupMatcher.groupEndsWith('a.b')            | ['a.b', 'c.a.b']
+        GroupMatcher.groupEndsWith('x)')             | ['(x)']
+        GroupMatcher.groupContains('.b')             | ['a.b', 'a.b.c', 'c.a.b', MAX_CHAR_GROUP]
+        GroupMatcher.groupContains('(x')             | ['(x)']
+        GroupMatcher.groupContains('none')           | []
+    }
+
+    def "should store reversed groups missing in documents of previous versions"() {
+        given:
+        collection.insertOne(new Document(Keys.KEY_NAME, 'legacy').append(Keys.KEY_GROUP, 'old.group'))
+
+        when:
+        new GroupHelper(collection, queryHelper).addMissingReversedGroups()
+
+        then:
+        MongoHelper.getFirst('jobs', [keyName: 'legacy']).keyGroupReversed == 'puorg.dlo'
+        groupsMatching(GroupMatcher.groupEndsWith('.group')) == ['old.group'] as Set
+    }
+
+    def groupsMatching(GroupMatcher matcher) {
+        collection.find(queryHelper.matchingKeysConditionFor(collection, matcher))
+                .collect { it.getString(Keys.KEY_GROUP) } as Set
+    }
+}
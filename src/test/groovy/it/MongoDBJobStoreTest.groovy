@@ -12,6 +12,7 @@ import org.quartz.JobDetail
 import org.quartz.JobExecutionContext
 import org.quartz.JobExecutionException
 import org.quartz.JobKey
+import org.quartz.ObjectAlreadyExistsException
 import org.quartz.SimpleScheduleBuilder
 import org.quartz.TimeOfDay
 import org.quartz.TriggerBuilder
@@ -19,6 +20,7 @@ import org.quartz.TriggerKey
 import org.quartz.impl.matchers.GroupMatcher
 import org.quartz.simpl.SimpleClassLoadHelper
 import org.quartz.spi.OperableTrigger
+import org.quartz.spi.SchedulerSignaler
 import spock.lang.Specification
 import spock.lang.Subject
 
@@ -30,6 +32,8 @@ import static org.quartz.Trigger.TriggerState.PAUSED
 
 class MongoDBJobStoreTest extends Specification {
 
+    def signaler = Mock(SchedulerSignaler)
+
     @Subject
     def store = makeStore()
 
@@ -325,6 +329,72 @@ class MongoDBJobStoreTest extends Specification {
         store.getPausedTriggerGroups().isEmpty()
     }
 
+    def 'should store triggers paused into paused groups'() {
+        given:
+        def j1 = makeJob('job-in-test-paused-groups1', 'main-tests')
+        def tk1 = new TriggerKey('test-paused-groups1', 'alt-tests')
+        def tk2 = new TriggerKey('test-paused-groups2', 'main-tests')
+        def tk3 = new TriggerKey('test-paused-groups3', 'other-tests')
+        store.storeJob(j1, false)
+        store.pauseTriggers(GroupMatcher.groupEquals('main-tests'))
+        store.pauseJobs(GroupMatcher.groupEquals('main-tests'))
+
+        when:
+        store.storeTrigger(TriggerBuilder.newTrigger().withIdentity(tk1).forJob(j1).build() as OperableTrigger, false)
+        store.storeTrigger(TriggerBuilder.newTrigger().withIdentity(tk2).forJob(j1).build() as OperableTrigger, false)
+
+        then:
+        store.getTriggerState(tk1) == PAUSED
+        store.getTriggerState(tk2) == PAUSED
+
+        when:
+        store.resumeJobs(GroupMatcher.groupEquals('main-tests'))
+        store.resumeAll()
+        store.storeTrigger(TriggerBuilder.newTrigger().withIdentity(tk3).forJob(j1).build() as OperableTrigger, false)
+
+        then:
+        store.getPausedJobGroups().isEmpty()
+        store.getPausedTriggerGroups().isEmpty()
+        store.getTriggerState(tk1) == NORMAL
+        store.getTriggerState(tk3) == NORMAL
+    }
+
+    def 'should reschedule misfired triggers on resume'() {
+        given:
+        def job = makeJob('job-in-test-resume-misfired', 'main-tests')
+        def tk1 = new TriggerKey('test-resume-misfired1', 'main-tests')
+        def tk2 = new TriggerKey('test-resume-misfired2', 'alt-tests')
+        store.storeJob(job, false)
+        [tk1, tk2].each { tk ->
+            def tr = TriggerBuilder.newTrigger()
+                    .withIdentity(tk)
+                    .startAt(new Date(System.currentTimeMillis() - 24 * 3600 * 1000L))
+                    .forJob(job)
+                    .withSchedule(SimpleScheduleBuilder.repeatHourlyForever()
+                    .withMisfireHandlingInstructionNextWithRemainingCount())
+                    .build() as OperableTrigger
+            tr.computeFirstFireTime(null)
+            store.storeTrigger(tr, false)
+        }
+        store.pauseAll()
+
+        when:
+        store.resumeTrigger(tk1)
+
+        then:
+        1 * signaler.notifyTriggerListenersMisfired({ it.key == tk1 })
+        store.retrieveTrigger(tk1).nextFireTime.after(new Date())
+        store.getTriggerState(tk2) == PAUSED
+
+        when:
+        store.resumeAll()
+
+        then:
+        1 * signaler.notifyTriggerListenersMisfired({ it.key == tk2 })
+        store.retrieveTrigger(tk2).nextFireTime.after(new Date())
+        store.getTriggerState(tk2) == NORMAL
+    }
+
     def 'should return job group names'() {
         given:
         def job1 = makeJob('job-in-test-job-group-names', 'test-job1')
@@ -527,6 +597,56 @@ class MongoDBJobStoreTest extends Specification {
         store.getPausedTriggerGroups().isEmpty()
     }
 
+    def 'should pause jobs of triggers stored without job keys'() {
+        given:
+        def j1 = makeJob('job-in-test-pause-legacy1', 'main-tests')
+        def tk1 = new TriggerKey('test-pause-legacy1', 'main-tests')
+        def tr1 = TriggerBuilder.newTrigger()
+                .startNow()
+                .withIdentity(tk1)
+                .endAt(in2Months())
+                .forJob(j1)
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                .withRepeatCount(10)
+                .withIntervalInMilliseconds(400))
+                .build() as OperableTrigger
+        store.storeJobAndTrigger(j1, tr1)
+        MongoHelper.collections['triggers'].updateOne(new Document('keyName', 'test-pause-legacy1'),
+                new Document('$unset', new Document('jobName', '').append('jobGroup', '')))
+        // Not migrated yet
+        MongoHelper.clearColl('migrations')
+
+        when:
+        store.pauseJobs(GroupMatcher.groupStartsWith('main'))
+
+        then:
+        store.getTriggerState(tk1) == PAUSED
+
+        when:
+        store.resumeJobs(GroupMatcher.groupStartsWith('main'))
+
+        then:
+        store.getTriggerState(tk1) == NORMAL
+    }
+
+    def 'should add reversed groups to documents of previous versions once'() {
+        given:
+        MongoHelper.addJob([keyName: 'j1', keyGroup: 'legacy'])
+
+        when:
+        def migratingStore = makeStore()
+        MongoHelper.addJob([keyName: 'j2', keyGroup: 'legacy'])
+        def restartedStore = makeStore()
+
+        then:
+        MongoHelper.getFirst('jobs', [keyName: 'j1']).keyGroupReversed == 'ycagel'
+        !MongoHelper.getFirst('jobs', [keyName: 'j2']).containsKey('keyGroupReversed')
+
+        cleanup:
+        migratingStore?.shutdown()
+        restartedStore?.shutdown()
+    }
+
     def 'should acquire next trigger'() {
         // Tests whether can acquire next trigger in case of trigger lock.
         // It creates 3 triggers and tries to acquire them one-by-one, which results
@@ -594,6 +714,82 @@ class MongoDBJobStoreTest extends Specification {
         store.acquireNextTriggers(ff + 10000, 1, 0).isEmpty()
     }
 
+    def 'should store jobs and triggers in bulk'() {
+        given:
+        def j1 = makeJob('bulk-job1')
+        def j2 = makeJob('bulk-job2')
+        def tr1 = makeTrigger('bulk-trigger1', j1)
+        def tr2 = makeTrigger('bulk-trigger2', j2)
+        def tr3 = makeTrigger('bulk-trigger3', j2)
+
+        when:
+        store.storeJobsAndTriggers([(j1): [tr1] as Set, (j2): [tr2, tr3] as Set], false)
+
+        then:
+        MongoHelper.getCount('jobs') == 2
+        MongoHelper.getCount('triggers') == 3
+        firstTrigger('bulk-trigger3').jobId == MongoHelper.getFirst('jobs', [keyName: 'bulk-job2'])._id
+
+        when: 'a trigger exists and is not replaced'
+        store.storeJobsAndTriggers([(makeJob('bulk-job3')): [makeTrigger('bulk-trigger4', j1)] as Set,
+                                    (j1): [tr1] as Set], false)
+
+        then: 'nothing is stored'
+        def e = thrown(ObjectAlreadyExistsException)
+        e.message.contains('bulk-trigger1')
+        MongoHelper.getCount('jobs') == 2
+        MongoHelper.getCount('triggers') == 3
+
+        when: 'triggers are replaced'
+        tr1.description = 'replaced'
+        store.storeJobsAndTriggers([(j1): [tr1, makeTrigger('bulk-trigger5', j1)] as Set], true)
+
+        then:
+        MongoHelper.getCount('jobs') == 2
+        MongoHelper.getCount('triggers') == 4
+        firstTrigger('bulk-trigger1').description == 'replaced'
+    }
+
+    def 'should remove triggers and their orphaned jobs'() {
+        given:
+        def orphaned = makeJob('orphaned-job')
+        def durable = JobBuilder.newJob(NoOpJob).withIdentity('durable-job', 'tests').storeDurably().build()
+        def shared = makeJob('shared-job')
+        store.storeJobsAndTriggers([
+                (orphaned): [makeTrigger('orphaned-t1', orphaned), makeTrigger('orphaned-t2', orphaned)] as Set,
+                (durable) : [makeTrigger('durable-t1', durable)] as Set,
+                (shared)  : [makeTrigger('shared-t1', shared), makeTrigger('shared-t2', shared)] as Set], false)
+
+        expect:
+        store.removeTriggers(['orphaned-t1', 'orphaned-t2', 'durable-t1', 'shared-t1']
+                .collect { new TriggerKey(it, 'tests') })
+        MongoHelper.getFirst('jobs', [keyName: 'orphaned-job']) == null
+        MongoHelper.getFirst('jobs', [keyName: 'durable-job']) != null
+        MongoHelper.getFirst('jobs', [keyName: 'shared-job']) != null
+        MongoHelper.getCount('triggers') == 1
+
+        and: 'not all triggers are found'
+        !store.removeTriggers([new TriggerKey('shared-t2', 'tests'), new TriggerKey('missing', 'tests')])
+        MongoHelper.getCount('triggers') == 0
+        MongoHelper.getFirst('jobs', [keyName: 'shared-job']) == null
+    }
+
+    def 'should remove jobs with their triggers'() {
+        given:
+        def j1 = makeJob('remove-job1')
+        def j2 = makeJob('remove-job2')
+        store.storeJobsAndTriggers([(j1): [makeTrigger('remove-t1', j1)] as Set,
+                                    (j2): [makeTrigger('remove-t2', j2)] as Set], false)
+
+        expect:
+        store.removeJobs([j1.key])
+        MongoHelper.getCount('jobs') == 1
+        MongoHelper.getCount('triggers') == 1
+        !store.removeJobs([j2.key, new JobKey('missing', 'tests')])
+        MongoHelper.getCount('jobs') == 0
+        MongoHelper.getCount('triggers') == 0
+    }
+
     def Document firstTrigger(String name) {
         firstTrigger(name, 'tests')
     }
@@ -606,6 +802,14 @@ class MongoDBJobStoreTest extends Specification {
         makeJob(name, 'tests')
     }
 
+    def OperableTrigger makeTrigger(String name, JobDetail job) {
+        TriggerBuilder.newTrigger()
+                .startNow()
+                .withIdentity(name, 'tests')
+                .forJob(job)
+                .build() as OperableTrigger
+    }
+
     def boolean hasJob(jobId) {
         MongoHelper.getFirst('jobs', [_id: jobId]) != null
     }
@@ -620,7 +824,7 @@ class MongoDBJobStoreTest extends Specification {
                 instanceName: 'quartz_mongodb_test',
                 dbName: 'quartz_mongodb_test',
                 addresses: "127.0.0.1:${MongoHelper.DEFAULT_MONGO_PORT}")
-        store.initialize(new SimpleClassLoadHelper(), null)
+        store.initialize(new SimpleClassLoadHelper(), signaler)
         store
     }
 
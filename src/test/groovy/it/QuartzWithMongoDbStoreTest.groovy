@@ -203,6 +203,7 @@ class QuartzWithMongoDbStoreTest extends Specification {
         def trigger = TriggerBuilder.newTrigger()
                 .startNow()
                 .withIdentity('clojurewerkz.quartzite.test.execution.trigger4', 'tests')
+                .usingJobData('triggerKey', 'triggerValue')
                 .withSchedule(SimpleScheduleBuilder.simpleSchedule()
                 .withRepeatCount(10)
                 .withIntervalInSeconds(2))
@@ -214,7 +215,7 @@ class QuartzWithMongoDbStoreTest extends Specification {
         Thread.sleep(1000)
 
         then:
-        counter4 == [jobKey: 'jobValue']
+        counter4 == [jobKey: 'jobValue', triggerKey: 'triggerValue']
     }
 
     // Case 5: